@@ -17,7 +17,11 @@
 package jp.co.tdkn.view;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,7 +39,10 @@ import android.os.Debug;
 import android.os.Handler;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.SparseArray;
@@ -43,6 +50,7 @@ import android.util.SparseBooleanArray;
 import android.util.StateSet;
 import android.view.ActionMode;
 import android.view.ContextMenu.ContextMenuInfo;
+import android.view.Gravity;
 import android.view.HapticFeedbackConstants;
 import android.view.InputDevice;
 import android.view.KeyEvent;
@@ -56,11 +64,14 @@ import android.view.ViewDebug;
 import android.view.ViewGroup;
 import android.view.ViewParent;
 import android.view.ViewTreeObserver;
+import android.view.WindowManager;
 import android.view.animation.Interpolator;
+import android.view.inputmethod.EditorInfo;
 import android.view.animation.LinearInterpolator;
 import android.widget.Adapter;
 import android.widget.Checkable;
 import android.widget.EditText;
+import android.widget.Filter;
 import android.widget.Filterable;
 import android.widget.ListAdapter;
 import android.widget.OverScroller;
@@ -84,7 +95,8 @@ import android.widget.PopupWindow;
  * @attr ref android.R.styleable#AbsListView_choiceMode
  */
 public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
-        implements ViewTreeObserver.OnTouchModeChangeListener {
+        implements TextWatcher, ViewTreeObserver.OnGlobalLayoutListener,
+        ViewTreeObserver.OnTouchModeChangeListener {
 
     @SuppressWarnings("UnusedDeclaration")
     private static final String TAG = "AbsHorizontalListView";
@@ -226,6 +238,74 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
      */
     public static final int CHOICE_MODE_MULTIPLE_MODAL = 3;
 
+    /**
+     * Flings come to rest wherever they decay
+     */
+    public static final int SNAP_NONE = 0;
+
+    /**
+     * Flings come to rest with the left edge of an item on the left edge of
+     * the list content
+     */
+    public static final int SNAP_START = 1;
+
+    /**
+     * Flings come to rest with the center of an item on the center of the
+     * list content
+     */
+    public static final int SNAP_CENTER = 2;
+
+    /**
+     * The scroll listener is called on every scroll step
+     */
+    public static final int SCROLL_DISPATCH_ALWAYS = 0;
+
+    /**
+     * The scroll listener is called only when the first visible position, the
+     * number of visible items or the item count changed
+     */
+    public static final int SCROLL_DISPATCH_RANGE_CHANGED = 1;
+
+    /**
+     * The scroll listener is called at most once per interval, and once more
+     * with the latest values when the interval ends or the list comes to rest
+     */
+    public static final int SCROLL_DISPATCH_THROTTLED = 2;
+
+    /**
+     * The scroll listener is called once the list comes to rest after
+     * scrolling, and right away for changes that happen while it rests
+     */
+    public static final int SCROLL_DISPATCH_IDLE = 3;
+
+    /**
+     * Children are drawn normally while scrolling
+     */
+    public static final int SCROLL_CACHE_NONE = 0;
+
+    /**
+     * Children are drawn from their software drawing cache while scrolling.
+     * Has no effect when the list is hardware accelerated.
+     */
+    public static final int SCROLL_CACHE_SOFTWARE = 1;
+
+    /**
+     * Children are given hardware layers during fast flings
+     */
+    public static final int SCROLL_CACHE_HARDWARE_LAYER = 2;
+
+    /**
+     * Hardware layers when the list is hardware accelerated, the software
+     * drawing cache otherwise
+     */
+    public static final int SCROLL_CACHE_AUTO = 3;
+
+    /**
+     * How long the hardware layers outlive the fling that created them, in
+     * case another fling follows
+     */
+    private static final int SCROLL_LAYER_DEMOTE_DELAY = 500;
+
     /**
      * Controls if/how the user may choose/check items in the list
      */
@@ -274,6 +354,13 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
      */
     ListAdapter mAdapter;
 
+    /**
+     * Incremented whenever the adapter is replaced or reports a data set
+     * change. Caches derived from adapter content compare against this value
+     * to know when they are stale.
+     */
+    int mDataSetGeneration;
+
     /**
      * If mAdapter != null, whenever this is true the adapter has stable IDs.
      */
@@ -306,6 +393,11 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
      */
     Rect mSelectorRect = new Rect();
 
+    /**
+     * The bounds of the view the selector is being moved to
+     */
+    private final Rect mSelectorBounds = new Rect();
+
     /**
      * The data set used to store unused views that should be reused during the
      * next layout to avoid creating new ones
@@ -417,6 +509,160 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
      */
     PositionScroller mPositionScroller;
 
+    /**
+     * Flings faster than this, in pixels per second, bind placeholder views
+     * from a {@link PlaceholderAdapter}.
+     */
+    private int mPlaceholderVelocity;
+
+    /**
+     * How many placeholders are replaced by full views per frame.
+     */
+    private int mPlaceholderUpgradesPerFrame = 2;
+
+    /**
+     * Set when a placeholder view may be among the children.
+     */
+    boolean mHasPlaceholders;
+
+    private PlaceholderUpgrader mPlaceholderUpgrader;
+
+    /**
+     * How far beyond each edge children are kept laid out, in pixels or, if
+     * mOffscreenMarginInItems is set, in items.
+     */
+    private int mOffscreenMargin;
+
+    private boolean mOffscreenMarginInItems;
+
+    /**
+     * The offscreen margin in pixels, taken when the list was last laid out
+     * so that it does not drift while scrolling.
+     */
+    private int mOffscreenMarginPixels;
+
+    /**
+     * Widths of the items laid out since the last data set change, or null if
+     * the index is disabled.
+     */
+    private ItemWidthIndex mItemWidthIndex;
+
+    private OnLayoutProfileListener mOnLayoutProfileListener;
+
+    /**
+     * The record reused by every profiled layout pass, or null when profiling
+     * is disabled.
+     */
+    private LayoutProfile mLayoutProfile;
+
+    /**
+     * The record of the layout pass in progress, or null outside of a
+     * profiled pass.
+     */
+    LayoutProfile mActiveLayoutProfile;
+
+    /**
+     * When set, data set changes and layout requests are recorded and
+     * processed together on the next animation frame.
+     */
+    private boolean mCoalesceUpdates;
+
+    /**
+     * A data set change was recorded while coalescing and its sync
+     * bookkeeping has not run yet.
+     */
+    private boolean mCoalescedDataChange;
+
+    /**
+     * A layout request was recorded while coalescing and has not been passed
+     * on yet.
+     */
+    private boolean mCoalescedLayoutRequest;
+
+    private boolean mCoalescedUpdateScheduled;
+
+    private Runnable mCoalescedUpdate;
+
+    /**
+     * When set, scrolling moves a single canvas translation instead of
+     * offsetting every child.
+     */
+    private boolean mViewportTranslation;
+
+    /**
+     * Distance between the coordinates the children were laid out in and the
+     * place they are drawn at. Non-zero only while viewport translation is
+     * enabled and a scroll has not been re-based yet.
+     */
+    int mViewportOffset;
+
+    /**
+     * Smooth scrolls that would travel past more than this many positions
+     * outside of the visible range jump close to the target first. 0 disables
+     * jumping.
+     */
+    private int mSmoothScrollJumpThreshold;
+
+    /**
+     * Where flings come to rest, one of {@link #SNAP_NONE},
+     * {@link #SNAP_START} or {@link #SNAP_CENTER}.
+     */
+    private int mFlingSnapMode = SNAP_NONE;
+
+    /**
+     * The source of animation frames for flings and smooth scrolls, or null
+     * for the default clock.
+     */
+    private ScrollClock mScrollClock;
+
+    /**
+     * When set, every item is a page as wide as the list content and flings
+     * come to rest on a page.
+     */
+    private boolean mPagingEnabled;
+
+    /**
+     * Releases faster than this many pixels per second turn the page.
+     */
+    private int mPagingVelocity;
+
+    /**
+     * Releases that scrolled more than this fraction of a page turn the page.
+     */
+    private float mPagingDistance = 0.5f;
+
+    /**
+     * How many pages on either side of the current one stay laid out, and
+     * twice as many keep their views in the scrap heap.
+     */
+    private int mOffscreenPageLimit = 1;
+
+    /**
+     * The page the list rested on when the current touch began.
+     */
+    private int mPagingStartPage = INVALID_POSITION;
+
+    /**
+     * The page last reported to mOnPageChangeListener.
+     */
+    private int mCurrentPage = INVALID_POSITION;
+
+    private OnPageChangeListener mOnPageChangeListener;
+
+    private OnScrollJankListener mOnScrollJankListener;
+
+    /**
+     * Watches the frames of scrolls, or null while no jank listener is
+     * registered.
+     */
+    ScrollJankMonitor mJankMonitor;
+
+    /**
+     * Tracks the visible fraction of the children, or null while no
+     * visibility listener is registered.
+     */
+    VisibilityTracker mVisibilityTracker;
+
     /**
      * The offset in pixels form the left of the AdapterView to the left of the
      * currently selected view. Used to save and restore state.
@@ -440,6 +686,19 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
      */
     private OnScrollListener mOnScrollListener;
 
+    /**
+     * Listeners added with
+     * {@link #addOnScrollListener(OnScrollListener, int, int)}. Replaced, not
+     * modified, when listeners are added or removed, so that a listener can
+     * remove itself while being called.
+     */
+    private ScrollListenerRecord[] mScrollListeners;
+
+    /**
+     * Delivers the trailing call of throttled scroll listeners.
+     */
+    private Runnable mScrollDispatch;
+
     /**
      * Keeps track of our accessory window
      */
@@ -467,11 +726,67 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
      */
     private boolean mFiltered;
 
+    /**
+     * How long typing has to pause before the adapter is asked to filter, in
+     * milliseconds
+     */
+    private int mTextFilterDelay = DEFAULT_TEXT_FILTER_DELAY;
+
+    /**
+     * Runs the filtering for the text typed so far once typing pauses
+     */
+    private Runnable mTextFilterRunner;
+
+    /**
+     * The last filtering handed to the adapter. Completions of earlier ones
+     * have been superseded and are ignored.
+     */
+    private TextFilterRequest mTextFilterRequest;
+
+    /**
+     * The constraint of the last filtering that completed, which a longer
+     * constraint starting with it can refine
+     */
+    private String mCompletedFilterText;
+
+    /**
+     * Whether the text changed while the last filtering was still running on
+     * the other filter of a {@link RefiningFilterable} adapter
+     */
+    private boolean mTextFilterDeferred;
+
+    /**
+     * Whether this view is registered as the global layout listener that
+     * keeps the filter popup in place
+     */
+    private boolean mGlobalLayoutListenerAddedFilter;
+
     /**
      * Rectangle used for hit testing children
      */
     private Rect mTouchFrame;
 
+    /**
+     * Rectangle used to measure how much of a child is on screen
+     */
+    private final Rect mVisibleRect = new Rect();
+
+    /**
+     * The area redrawn by the current frame, in the coordinates the children
+     * are drawn in before the viewport offset. Valid while mDrawClipValid is
+     * set.
+     */
+    private final Rect mDrawClip = new Rect();
+
+    private boolean mDrawClipValid;
+
+    /**
+     * Inverse of the clip to padding setting, so that it defaults to clipping
+     * without an initializer, which would overwrite what the constructor of
+     * ViewGroup set.
+     */
+    private boolean mClipToPaddingDisabled;
+
     /**
      * The position to resurrect the selected position to.
      */
@@ -496,6 +811,18 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
      */
     private static final int CHECK_POSITION_SEARCH_DISTANCE = 20;
 
+    /**
+     * A pending viewport translation is applied to the children once it grows
+     * this large, well before child coordinates lose precision when drawn.
+     */
+    private static final int VIEWPORT_REBASE_LIMIT = 1 << 20;
+
+    /**
+     * The default pause in typing after which the list is filtered, in
+     * milliseconds
+     */
+    private static final int DEFAULT_TEXT_FILTER_DELAY = 150;
+
     /**
      * Used to request a layout when we changed touch mode
      */
@@ -562,13 +889,61 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
     private int mTouchSlop;
 
     private Runnable mClearScrollingCache;
+
+    private int mScrollingCacheMode = SCROLL_CACHE_AUTO;
+
+    /**
+     * How many bytes the scrolling cache may use, or -1 for twice the size of
+     * the list.
+     */
+    private int mScrollingCacheMemoryLimit = -1;
+
+    /**
+     * Flings faster than this, in pixels per second, give children hardware
+     * layers, which they keep until the fling slows down below
+     * mScrollingLayerDemoteVelocity.
+     */
+    private int mScrollingLayerPromoteVelocity;
+
+    private int mScrollingLayerDemoteVelocity;
+
+    /**
+     * Set while children are being given hardware layers.
+     */
+    private boolean mScrollingLayersActive;
+
+    private Runnable mDemoteScrollingLayers;
     Runnable mPositionScrollAfterLayout;
+
+    /**
+     * Set by {@link #setCurrentPage(int, boolean)} to report the page once
+     * the list has been laid out on it.
+     */
+    private boolean mPendingPageChange;
     private int mMinimumVelocity;
     private int mMaximumVelocity;
     private float mVelocityScale = 1.0f;
 
     final boolean[] mIsScrap = new boolean[1];
 
+    /**
+     * Adapter metadata queried during the current layout or scroll pass.
+     */
+    final ItemInfoCache mItemInfo = new ItemInfoCache();
+
+    /**
+     * Follows the first and selected positions through the data set changes
+     * described by a {@link ChangeRangeAdapter} until the next layout.
+     */
+    private final ChangeRangeTracker mChangeRangeTracker = new ChangeRangeTracker();
+
+    /**
+     * Whether items that are not {@link Checkable} show their checked state
+     * through {@link View#setActivated(boolean)}. Depends on the target SDK
+     * of the application only, so it is resolved once.
+     */
+    boolean mUseActivated;
+
     /**
      * ID of the active pointer. This is used to retain consistency during
      * drags/flings if multiple pointers are used.
@@ -713,43 +1088,377 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
     }
 
     /**
-     * J API փANZX邽߂̃bvNX
+     * Interface definition for a callback to be invoked when the list settles
+     * on a new page in paging mode.
      * 
-     * @tdkn
+     * @see AbsHorizontalListView#setPagingEnabled(boolean)
      */
-    static final class HideApiProxy extends ReflectionProxy {
+    public interface OnPageChangeListener {
+        /**
+         * Called once each time the list comes to rest on a page other than
+         * the last one reported.
+         * 
+         * @param view
+         *            The list
+         * @param page
+         *            The position of the item the list rests on
+         */
+        public void onPageSelected(AbsHorizontalListView view, int page);
+    }
 
-        int mGroupFlags(ViewGroup instance) {
-            return getFieldValueAsInt(ViewGroup.class, "mGroupFlags", instance);
-        }
+    /**
+     * Interface definition for a callback to be invoked after each layout
+     * pass with a breakdown of where the pass spent its time.
+     * 
+     * @see AbsHorizontalListView#setOnLayoutProfileListener(OnLayoutProfileListener)
+     */
+    public interface OnLayoutProfileListener {
+        /**
+         * Called at the end of every layout pass.
+         * 
+         * @param view
+         *            The list that was laid out
+         * @param profile
+         *            The record of the pass. It is reused for the next pass,
+         *            so copy what you need before returning.
+         */
+        public void onLayoutProfile(AbsHorizontalListView view,
+                LayoutProfile profile);
+    }
 
-        void mGroupFlags(ViewGroup instance, int value) {
-            setFieldValue(ViewGroup.class, "mGroupFlags", value, instance);
-        }
+    /**
+     * Interface definition for a callback to be invoked with the frame
+     * statistics of a scroll once it comes to rest.
+     * 
+     * @see AbsHorizontalListView#setOnScrollJankListener(OnScrollJankListener)
+     */
+    public interface OnScrollJankListener {
+        /**
+         * Called each time the list goes idle after a touch scroll or a
+         * fling.
+         * 
+         * @param view
+         *            The list that scrolled
+         * @param report
+         *            The statistics of the scroll. It is reused for the next
+         *            scroll, so copy what you need before returning.
+         */
+        public void onScrollJank(AbsHorizontalListView view,
+                ScrollJankReport report);
+    }
 
-        void mLeft(View instance, int value) {
-            setFieldValue(View.class, "mLeft", value, instance);
-        }
+    /**
+     * Interface definition for callbacks to be invoked when items become
+     * visible and hidden.
+     * 
+     * @see AbsHorizontalListView#setOnItemVisibilityListener(OnItemVisibilityListener,
+     *      float, int)
+     */
+    public interface OnItemVisibilityListener {
+        /**
+         * Called when an item has stayed visible enough for long enough.
+         * 
+         * @param view
+         *            The list the item is in
+         * @param child
+         *            The view of the item
+         * @param position
+         *            The position of the item in the adapter
+         * @param fraction
+         *            The fraction of the width of the item that is on screen
+         */
+        public void onItemVisible(AbsHorizontalListView view, View child,
+                int position, float fraction);
 
-        void mRight(View instance, int value) {
-            setFieldValue(View.class, "mRight", value, instance);
-        }
+        /**
+         * Called when an item that was reported visible drops below the
+         * threshold or leaves the screen. Also called for every visible item
+         * when the data set changes or the list is detached from its window.
+         * 
+         * @param view
+         *            The list the item was in
+         * @param position
+         *            The position the item was reported at
+         */
+        public void onItemHidden(AbsHorizontalListView view, int position);
+    }
+
+    /**
+     * Frame statistics of one scroll, from the first frame after the list
+     * leaves {@link OnScrollListener#SCROLL_STATE_IDLE} to the last one before
+     * it returns to it. All times are in nanoseconds. A frame is slow when it
+     * took at least one and a half frame budgets, that is when it missed a
+     * vsync.
+     */
+    public static final class ScrollJankReport {
+        /** The scroll state the scroll started in */
+        public int startState;
+        /** The time between two vsyncs of the display */
+        public long frameBudgetNanos;
+        /** Time from the first to the last frame */
+        public long durationNanos;
+        /** Number of frames */
+        public int frameCount;
+        /** Number of slow frames */
+        public int slowFrameCount;
+        /** Number of vsyncs missed by the slow frames */
+        public int droppedFrameCount;
+        /** Duration of the longest frame */
+        public long longestFrameNanos;
+        /** Slow frames during which the list laid out children */
+        public int slowFramesWithLayout;
+        /** Time spent laying out children during slow frames */
+        public long slowFrameLayoutNanos;
+        /** Slow frames during which the list obtained views */
+        public int slowFramesWithObtainView;
+        /** Time spent in obtainView during slow frames */
+        public long slowFrameObtainViewNanos;
+        /** Slow frames during which the list drew */
+        public int slowFramesWithDraw;
+        /** Time spent drawing during slow frames */
+        public long slowFrameDrawNanos;
+
+        void reset() {
+            startState = OnScrollListener.SCROLL_STATE_IDLE;
+            frameBudgetNanos = 0;
+            durationNanos = 0;
+            frameCount = 0;
+            slowFrameCount = 0;
+            droppedFrameCount = 0;
+            longestFrameNanos = 0;
+            slowFramesWithLayout = 0;
+            slowFrameLayoutNanos = 0;
+            slowFramesWithObtainView = 0;
+            slowFrameObtainViewNanos = 0;
+            slowFramesWithDraw = 0;
+            slowFrameDrawNanos = 0;
+        }
+    }
+
+    /**
+     * Timings and counts of one layout pass. All times are in nanoseconds.
+     * Nested work is included in the enclosing time: obtainViewNanos
+     * includes getViewNanos and fillNanos includes both of them and
+     * measureNanos.
+     */
+    public static final class LayoutProfile {
+        public static final int FILL_NONE = -1;
+        public static final int FILL_FROM_LEFT = 0;
+        public static final int FILL_LEFT = 1;
+        public static final int FILL_FROM_MIDDLE = 2;
+        public static final int FILL_FROM_SELECTION = 3;
+        public static final int FILL_SPECIFIC = 4;
+        public static final int FILL_MOVE_SELECTION = 5;
+
+        /** Duration of the whole pass */
+        public long totalNanos;
+        /** Time spent in handleDataChanged */
+        public long handleDataChangedNanos;
+        /** Time spent moving the current children to the recycler */
+        public long fillActiveViewsNanos;
+        /** The fill strategy used by the pass, one of the FILL_ constants */
+        public int fillStrategy;
+        /** Time spent in the fill strategy */
+        public long fillNanos;
+        /** Time spent in obtainView */
+        public long obtainViewNanos;
+        /** Time spent in the adapter's getView */
+        public long getViewNanos;
+        /** Time spent measuring children */
+        public long measureNanos;
+        /** Time spent in scrapActiveViews */
+        public long scrapActiveViewsNanos;
+        /** Views inflated by the adapter because no scrap view was used */
+        public int viewsCreated;
+        /** Scrap views the adapter rebound to a new position */
+        public int viewsRebound;
+        /** Views kept as they were, without calling the adapter */
+        public int viewsReused;
+
+        void reset() {
+            totalNanos = 0;
+            handleDataChangedNanos = 0;
+            fillActiveViewsNanos = 0;
+            fillStrategy = FILL_NONE;
+            fillNanos = 0;
+            obtainViewNanos = 0;
+            getViewNanos = 0;
+            measureNanos = 0;
+            scrapActiveViewsNanos = 0;
+            viewsCreated = 0;
+            viewsRebound = 0;
+            viewsReused = 0;
+        }
+    }
+
+    /**
+     * An adapter whose items are not all enabled can implement this interface
+     * to report its enabled positions as ranges. Keyboard navigation then
+     * finds the next selectable item without asking
+     * {@link ListAdapter#isEnabled(int)} about every position; otherwise the
+     * list asks about every position once after each data set change.
+     */
+    public interface EnabledRangeAdapter {
+        /**
+         * @return The number of ranges of enabled positions
+         */
+        public int getEnabledRangeCount();
 
-        void mScrollX(View instance, int scrollX) {
-            setFieldValue(View.class, "mScrollX", scrollX, instance);
-        }
+        /**
+         * @param index
+         *            The index of a range. Ranges are sorted by position and
+         *            do not overlap.
+         * @return The first position of the range
+         */
+        public int getEnabledRangeStart(int index);
 
-        boolean mCachingFailed(View view) {
-            return getFieldValueAsBoolean(View.class, "mCachingFailed", view);
-        }
+        /**
+         * @param index
+         *            The index of a range
+         * @return The position after the last position of the range
+         */
+        public int getEnabledRangeEnd(int index);
+    }
 
-        boolean hasOpaqueScrollbars(View view) {
-            return (Boolean) invoke(View.class, "hasOpaqueScrollbars", view,
-                    null, null);
-        }
+    /**
+     * A {@link Filterable} adapter can implement this interface to narrow its
+     * current results when the text filter grows by appending characters,
+     * instead of filtering the whole data set again for every keystroke. The
+     * list only refines once the previous filtering has been published, and
+     * never runs the two filters at the same time. To keep the items on screen
+     * in place while the results narrow, the adapter can also implement
+     * {@link ChangeRangeAdapter}.
+     */
+    public interface RefiningFilterable extends Filterable {
+        /**
+         * @return A filter that filters the results currently published by the
+         *         adapter rather than the whole data set, or null to always
+         *         use {@link Filterable#getFilter()}
+         */
+        public Filter getRefiningFilter();
+    }
 
-        void dispatchStartTemporaryDetach(View instance) {
-            invoke(View.class, "dispatchStartTemporaryDetach", instance, null,
+    /**
+     * An adapter can implement this interface to describe each change it
+     * announces, such as the results of a filtering, as ranges of removed and
+     * inserted items. After a change the list then keeps the items it showed
+     * and the selected item where they were, even without stable ids, instead
+     * of showing whatever items moved to their positions.
+     */
+    public interface ChangeRangeAdapter {
+        /**
+         * Called while the adapter notifies its observers of a change.
+         * 
+         * @return The number of ranges the change replaced, or -1 if the
+         *         change is not described
+         */
+        public int getChangeRangeCount();
+
+        /**
+         * @param index
+         *            The index of a range. Ranges are sorted by position and
+         *            do not overlap.
+         * @return The position of the first item of the range before the
+         *         change
+         */
+        public int getChangeRangeStart(int index);
+
+        /**
+         * @param index
+         *            The index of a range
+         * @return The number of items removed at the start of the range
+         */
+        public int getChangeRangeRemovedCount(int index);
+
+        /**
+         * @param index
+         *            The index of a range
+         * @return The number of items inserted in their place
+         */
+        public int getChangeRangeInsertedCount(int index);
+    }
+
+    /**
+     * An adapter with stable ids can implement this interface to look up the
+     * position of an id directly. The list then finds the selection and the
+     * checked items again after a data set change or a restore without
+     * searching the data for their ids.
+     */
+    public interface IdPositionAdapter {
+        /**
+         * Returns the position of the item with the id <code>id</code>.
+         * 
+         * @param id
+         *            The stable id of an item
+         * @return The position of the item, or {@link #INVALID_POSITION} if
+         *         no item has that id
+         */
+        public int getPositionForItemId(long id);
+    }
+
+    /**
+     * An adapter can implement this interface to bind cheap placeholder views
+     * while the list flings too fast for the content to be seen. Once the
+     * fling slows down or ends, the list replaces the placeholders on screen
+     * with full views from {@link Adapter#getView(int, View, ViewGroup)}, a
+     * few per frame, passing each placeholder as the convert view.
+     * 
+     * @see AbsHorizontalListView#setPlaceholderVelocity(int)
+     */
+    public interface PlaceholderAdapter {
+        /**
+         * Get a view that stands in for the item at <code>position</code>.
+         * The view is recycled with the views of the item's type, so it must
+         * be a view {@link Adapter#getView(int, View, ViewGroup)} can bind as
+         * well.
+         * 
+         * @param position
+         *            Position of the item in the adapter
+         * @param convertView
+         *            The old view to reuse, if possible
+         * @param parent
+         *            The parent the view will be attached to
+         * @return A view for the item, ideally of the same size as the full
+         *         one
+         */
+        public View getPlaceholderView(int position, View convertView,
+                ViewGroup parent);
+    }
+
+    /**
+     * J API փANZX邽߂̃bvNX
+     * 
+     * @tdkn
+     */
+    static final class HideApiProxy extends ReflectionProxy {
+
+        int mGroupFlags(ViewGroup instance) {
+            return getFieldValueAsInt(ViewGroup.class, "mGroupFlags", instance);
+        }
+
+        void mLeft(View instance, int value) {
+            setFieldValue(View.class, "mLeft", value, instance);
+        }
+
+        void mRight(View instance, int value) {
+            setFieldValue(View.class, "mRight", value, instance);
+        }
+
+        void mScrollX(View instance, int scrollX) {
+            setFieldValue(View.class, "mScrollX", scrollX, instance);
+        }
+
+        boolean mCachingFailed(View view) {
+            return getFieldValueAsBoolean(View.class, "mCachingFailed", view);
+        }
+
+        boolean hasOpaqueScrollbars(View view) {
+            return (Boolean) invoke(View.class, "hasOpaqueScrollbars", view,
+                    null, null);
+        }
+
+        void dispatchStartTemporaryDetach(View instance) {
+            invoke(View.class, "dispatchStartTemporaryDetach", instance, null,
                     null);
         }
 
@@ -853,14 +1562,22 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         setWillNotDraw(false);
         setAlwaysDrawnWithCacheEnabled(false);
         setScrollingCacheEnabled(true);
+        // See setClipToPadding(boolean)
+        super.setClipToPadding(false);
 
         final ViewConfiguration configuration = ViewConfiguration
                 .get(getContext());
         mTouchSlop = configuration.getScaledTouchSlop();
         mMinimumVelocity = configuration.getScaledMinimumFlingVelocity();
         mMaximumVelocity = configuration.getScaledMaximumFlingVelocity();
+        mPagingVelocity = mMinimumVelocity;
+        mPlaceholderVelocity = mMaximumVelocity / 4;
+        mScrollingLayerPromoteVelocity = mMaximumVelocity / 8;
+        mScrollingLayerDemoteVelocity = mScrollingLayerPromoteVelocity / 2;
         mOverscrollDistance = configuration.getScaledOverscrollDistance();
         mOverflingDistance = configuration.getScaledOverflingDistance();
+
+        mUseActivated = getContext().getApplicationInfo().targetSdkVersion >= android.os.Build.VERSION_CODES.HONEYCOMB;
     }
 
     /**
@@ -868,6 +1585,9 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
      */
     @Override
     public void setAdapter(ListAdapter adapter) {
+        mDataSetGeneration++;
+        mItemInfo.clear();
+
         if (adapter != null) {
             if (mChoiceMode != CHOICE_MODE_NONE && mAdapterHasStableIds
                     && mCheckedIdStates == null) {
@@ -997,6 +1717,28 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         mCheckedItemCount = 0;
     }
 
+    /**
+     * Replaces the checked state with checked ids, each of which is checked
+     * at the position the adapter has it now.
+     * 
+     * @param ids
+     *            The checked ids
+     * @param positions
+     *            The position each id was last seen at
+     */
+    void restoreCheckedIds(long[] ids, int[] positions) {
+        clearChoices();
+        if (mChoiceMode == CHOICE_MODE_NONE || mCheckedIdStates == null
+                || mCheckStates == null || mAdapter == null) {
+            return;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            mCheckedIdStates.put(ids[i], positions[i]);
+        }
+        mCheckedItemCount = mCheckedIdStates.size();
+        confirmCheckedPositionsById();
+    }
+
     /**
      * Sets the checked state of the specified position. The is only valid if
      * the choice mode has been set to {@link #CHOICE_MODE_SINGLE} or
@@ -1147,7 +1889,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
     private void updateOnScreenCheckedViews() {
         final int firstPos = mFirstPosition;
         final int count = getChildCount();
-        final boolean useActivated = getContext().getApplicationInfo().targetSdkVersion >= android.os.Build.VERSION_CODES.HONEYCOMB;
+        final boolean useActivated = mUseActivated;
         for (int i = 0; i < count; i++) {
             final View child = getChildAt(i);
             final int position = firstPos + i;
@@ -1293,10 +2035,224 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             mOnScrollListener.onScroll(this, mFirstPosition, getChildCount(),
                     mItemCount);
         }
+        if (mScrollListeners != null) {
+            dispatchOnScroll(false);
+        }
+        if (mVisibilityTracker != null) {
+            mVisibilityTracker.update();
+        }
         // dummy values, View's implementation does not use these.
         onScrollChanged(0, 0, 0, 0);
     }
 
+    /**
+     * Adds a listener that is called on every scroll step, in addition to the
+     * one set with {@link #setOnScrollListener(OnScrollListener)}.
+     * 
+     * @param listener
+     *            The scroll listener
+     */
+    public void addOnScrollListener(OnScrollListener listener) {
+        addOnScrollListener(listener, SCROLL_DISPATCH_ALWAYS, 0);
+    }
+
+    /**
+     * Adds a scroll listener that is only called as often as it needs to be.
+     * Every listener is told about every scroll state change;
+     * <code>mode</code> decides when
+     * {@link OnScrollListener#onScroll(AbsHorizontalListView, int, int, int)}
+     * is called.
+     * 
+     * @param listener
+     *            The scroll listener
+     * @param mode
+     *            One of {@link #SCROLL_DISPATCH_ALWAYS},
+     *            {@link #SCROLL_DISPATCH_RANGE_CHANGED},
+     *            {@link #SCROLL_DISPATCH_THROTTLED} or
+     *            {@link #SCROLL_DISPATCH_IDLE}
+     * @param intervalMillis
+     *            The minimum time between two calls with
+     *            {@link #SCROLL_DISPATCH_THROTTLED}, ignored otherwise
+     */
+    public void addOnScrollListener(OnScrollListener listener, int mode,
+            int intervalMillis) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        if (mode < SCROLL_DISPATCH_ALWAYS || mode > SCROLL_DISPATCH_IDLE) {
+            throw new IllegalArgumentException("Unknown dispatch mode: " + mode);
+        }
+        if (mode == SCROLL_DISPATCH_THROTTLED && intervalMillis <= 0) {
+            throw new IllegalArgumentException("Throttled dispatch needs a positive interval: "
+                    + intervalMillis);
+        }
+        final ScrollListenerRecord record = new ScrollListenerRecord(listener,
+                mode, intervalMillis);
+        final ScrollListenerRecord[] old = mScrollListeners;
+        final int count = old != null ? old.length : 0;
+        final ScrollListenerRecord[] records = new ScrollListenerRecord[count + 1];
+        if (old != null) {
+            System.arraycopy(old, 0, records, 0, count);
+        }
+        records[count] = record;
+        mScrollListeners = records;
+
+        record.lastDispatch = SystemClock.uptimeMillis();
+        record.dispatch(this, mFirstPosition, getChildCount(), mItemCount);
+    }
+
+    /**
+     * Removes a listener added with
+     * {@link #addOnScrollListener(OnScrollListener, int, int)}.
+     * 
+     * @param listener
+     *            The scroll listener
+     */
+    public void removeOnScrollListener(OnScrollListener listener) {
+        final ScrollListenerRecord[] old = mScrollListeners;
+        if (old == null) {
+            return;
+        }
+        int kept = 0;
+        for (ScrollListenerRecord record : old) {
+            if (record.listener != listener) {
+                kept++;
+            }
+        }
+        if (kept == old.length) {
+            return;
+        }
+        if (kept == 0) {
+            mScrollListeners = null;
+            if (mScrollDispatch != null) {
+                removeCallbacks(mScrollDispatch);
+            }
+            return;
+        }
+        final ScrollListenerRecord[] records = new ScrollListenerRecord[kept];
+        int i = 0;
+        for (ScrollListenerRecord record : old) {
+            if (record.listener != listener) {
+                records[i++] = record;
+            }
+        }
+        mScrollListeners = records;
+    }
+
+    /**
+     * Calls the added scroll listeners that want to hear about the current
+     * range.
+     * 
+     * @param flush
+     *            true to only deliver the calls held back by throttled and
+     *            idle listeners, false for a new scroll step
+     */
+    private void dispatchOnScroll(boolean flush) {
+        final ScrollListenerRecord[] records = mScrollListeners;
+        if (records == null) {
+            return;
+        }
+        final int first = mFirstPosition;
+        final int count = getChildCount();
+        final int total = mItemCount;
+        final boolean idle = mLastScrollState == OnScrollListener.SCROLL_STATE_IDLE;
+        long now = 0;
+        long nextDue = Long.MAX_VALUE;
+        for (ScrollListenerRecord record : records) {
+            switch (record.mode) {
+            case SCROLL_DISPATCH_ALWAYS:
+                if (!flush) {
+                    record.dispatch(this, first, count, total);
+                }
+                break;
+            case SCROLL_DISPATCH_RANGE_CHANGED:
+                if (!flush && record.isChanged(first, count, total)) {
+                    record.dispatch(this, first, count, total);
+                }
+                break;
+            case SCROLL_DISPATCH_THROTTLED:
+                if (!flush) {
+                    record.pending = true;
+                }
+                if (record.pending) {
+                    if (now == 0) {
+                        now = SystemClock.uptimeMillis();
+                    }
+                    final long due = record.lastDispatch + record.interval;
+                    if (idle || now >= due) {
+                        record.lastDispatch = now;
+                        record.dispatch(this, first, count, total);
+                    } else if (due < nextDue) {
+                        nextDue = due;
+                    }
+                }
+                break;
+            case SCROLL_DISPATCH_IDLE:
+                if (!flush) {
+                    record.pending = true;
+                }
+                if (record.pending && idle) {
+                    record.dispatch(this, first, count, total);
+                }
+                break;
+            }
+        }
+
+        if (nextDue != Long.MAX_VALUE) {
+            if (mScrollDispatch == null) {
+                mScrollDispatch = new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatchOnScroll(true);
+                    }
+                };
+            }
+            removeCallbacks(mScrollDispatch);
+            postDelayed(mScrollDispatch, nextDue - now);
+        }
+    }
+
+    /**
+     * A scroll listener added with
+     * {@link AbsHorizontalListView#addOnScrollListener(OnScrollListener, int, int)}
+     * and the values it was last called with.
+     */
+    private static final class ScrollListenerRecord {
+        final OnScrollListener listener;
+        final int mode;
+        final int interval;
+
+        int first = INVALID_POSITION;
+        int count = -1;
+        int total = -1;
+        long lastDispatch;
+
+        /**
+         * A call is held back until the interval ends or the list rests
+         */
+        boolean pending;
+
+        ScrollListenerRecord(OnScrollListener listener, int mode, int interval) {
+            this.listener = listener;
+            this.mode = mode;
+            this.interval = interval;
+        }
+
+        boolean isChanged(int first, int count, int total) {
+            return this.first != first || this.count != count
+                    || this.total != total;
+        }
+
+        void dispatch(AbsHorizontalListView view, int first, int count,
+                int total) {
+            this.first = first;
+            this.count = count;
+            this.total = total;
+            pending = false;
+            listener.onScroll(view, first, count, total);
+        }
+    }
+
     /**
      * Indicates whether the children's drawing cache is used during a scroll.
      * By default, the drawing cache is enabled but this will consume more
@@ -1333,6 +2289,77 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         mScrollingCacheEnabled = enabled;
     }
 
+    /**
+     * Chooses how children are cached while scrolling, if the scrolling
+     * cache is enabled.
+     * 
+     * @param mode
+     *            One of {@link #SCROLL_CACHE_NONE},
+     *            {@link #SCROLL_CACHE_SOFTWARE},
+     *            {@link #SCROLL_CACHE_HARDWARE_LAYER} or
+     *            {@link #SCROLL_CACHE_AUTO}. Defaults to
+     *            {@link #SCROLL_CACHE_AUTO}.
+     * @see #setScrollingCacheEnabled(boolean)
+     */
+    public void setScrollingCacheMode(int mode) {
+        if (mode < SCROLL_CACHE_NONE || mode > SCROLL_CACHE_AUTO) {
+            throw new IllegalArgumentException("Unknown scrolling cache mode: "
+                    + mode);
+        }
+        if (mScrollingCacheMode != mode) {
+            clearScrollingCache();
+            mScrollingCacheMode = mode;
+        }
+    }
+
+    /**
+     * @return The scrolling cache mode
+     * @see #setScrollingCacheMode(int)
+     */
+    public int getScrollingCacheMode() {
+        return mScrollingCacheMode;
+    }
+
+    /**
+     * Caps the memory used by the scrolling cache. Children that would go
+     * over the cap are drawn normally, and the software drawing cache is not
+     * used at all if the children on screen would go over it.
+     * 
+     * @param bytes
+     *            The cap in bytes, or -1 for twice the size of the list at 32
+     *            bits per pixel, which is the default
+     */
+    public void setScrollingCacheMemoryLimit(int bytes) {
+        if (bytes < -1) {
+            throw new IllegalArgumentException("Invalid memory limit: " + bytes);
+        }
+        mScrollingCacheMemoryLimit = bytes;
+    }
+
+    /**
+     * Sets when children get hardware layers with
+     * {@link #SCROLL_CACHE_HARDWARE_LAYER}. Layers cost a redraw to build, so
+     * they are only given during flings fast enough to pay it back, and kept
+     * until the fling slows down well below that.
+     * 
+     * @param promoteVelocity
+     *            Flings faster than this many pixels per second give children
+     *            layers. Defaults to an eighth of the system maximum fling
+     *            velocity.
+     * @param demoteVelocity
+     *            Layers are removed when the fling slows down below this many
+     *            pixels per second. Defaults to half the promote velocity.
+     */
+    public void setScrollingLayerThresholds(int promoteVelocity,
+            int demoteVelocity) {
+        if (demoteVelocity < 0 || promoteVelocity < demoteVelocity) {
+            throw new IllegalArgumentException("Invalid layer thresholds: "
+                    + promoteVelocity + ", " + demoteVelocity);
+        }
+        mScrollingLayerPromoteVelocity = promoteVelocity;
+        mScrollingLayerDemoteVelocity = demoteVelocity;
+    }
+
     /**
      * Enables or disables the type filter window. If enabled, typing when this
      * view has focus will filter the children to match the users input. Note
@@ -1361,80 +2388,477 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         return mTextFilterEnabled;
     }
 
-    @Override
-    public void getFocusedRect(Rect r) {
-        View view = getSelectedView();
-        if (view != null && view.getParent() == this) {
-            // the focused rectangle of the selected view offset into the
-            // coordinate space of this view.
-            view.getFocusedRect(r);
-            offsetDescendantRectToMyCoords(view, r);
-        } else {
-            // otherwise, just the norm
-            super.getFocusedRect(r);
+    /**
+     * Sets how long typing has to pause before the adapter is asked to filter
+     * the list, so that a burst of keystrokes runs a single filtering.
+     * 
+     * @param delayMillis
+     *            The pause in milliseconds, or 0 to filter on every keystroke
+     */
+    public void setTextFilterDelay(int delayMillis) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("Invalid text filter delay: "
+                    + delayMillis);
         }
+        mTextFilterDelay = delayMillis;
     }
 
-    private void useDefaultSelector() {
-        setSelector(getResources().getDrawable(
-                R.drawable.list_selector_background));
+    /**
+     * @return How long typing has to pause before the list is filtered, in
+     *         milliseconds
+     * @see #setTextFilterDelay(int)
+     */
+    public int getTextFilterDelay() {
+        return mTextFilterDelay;
     }
 
-    void requestLayoutIfNecessary() {
-        if (getChildCount() > 0) {
-            resetList();
-            requestLayout();
-            invalidate();
-        }
+    /**
+     * @return true if typing can filter the list
+     */
+    boolean acceptFilter() {
+        return mTextFilterEnabled && getAdapter() instanceof Filterable
+                && ((Filterable) getAdapter()).getFilter() != null;
     }
 
-    static class SavedState extends BaseSavedState {
-        long selectedId;
-        long firstId;
-        int viewLeft;
-        int position;
-        int width;
-        String filter;
-        boolean inActionMode;
-        int checkedItemCount;
-        SparseBooleanArray checkState;
-        HashMap<Long, Integer> checkIdState;
-
-        /**
-         * Constructor called from
-         * {@link AbsHorizontalListView#onSaveInstanceState()}
-         */
-        SavedState(Parcelable superState) {
-            super(superState);
+    /**
+     * Sends a key to the text filter window
+     * 
+     * @param keyCode
+     *            The keycode for the event
+     * @param event
+     *            The actual key event
+     * 
+     * @return True if the text filter handled the event, false otherwise.
+     */
+    boolean sendToTextFilter(int keyCode, int count, KeyEvent event) {
+        if (!acceptFilter()) {
+            return false;
         }
 
-        /**
-         * Constructor called from {@link #CREATOR}
-         */
-        private SavedState(Parcel in) {
-            super(in);
-            selectedId = in.readLong();
-            firstId = in.readLong();
-            viewLeft = in.readInt();
-            position = in.readInt();
-            width = in.readInt();
-            filter = in.readString();
-            inActionMode = in.readByte() != 0;
-            checkedItemCount = in.readInt();
-            checkState = in.readSparseBooleanArray();
-            final int N = in.readInt();
-            if (N > 0) {
-                checkIdState = new HashMap<Long, Integer>();
-                for (int i = 0; i < N; i++) {
-                    final long key = in.readLong();
-                    final int value = in.readInt();
-                    checkIdState.put(key, value);
+        boolean handled = false;
+        boolean okToSend = true;
+        switch (keyCode) {
+        case KeyEvent.KEYCODE_DPAD_UP:
+        case KeyEvent.KEYCODE_DPAD_DOWN:
+        case KeyEvent.KEYCODE_DPAD_LEFT:
+        case KeyEvent.KEYCODE_DPAD_RIGHT:
+        case KeyEvent.KEYCODE_DPAD_CENTER:
+        case KeyEvent.KEYCODE_ENTER:
+            okToSend = false;
+            break;
+        case KeyEvent.KEYCODE_BACK:
+            if (mFiltered && mPopup != null && mPopup.isShowing()) {
+                if (event.getAction() == KeyEvent.ACTION_DOWN
+                        && event.getRepeatCount() == 0) {
+                    KeyEvent.DispatcherState state = getKeyDispatcherState();
+                    if (state != null) {
+                        state.startTracking(event, this);
+                    }
+                    handled = true;
+                } else if (event.getAction() == KeyEvent.ACTION_UP
+                        && event.isTracking() && !event.isCanceled()) {
+                    handled = true;
+                    mTextFilter.setText("");
                 }
             }
+            okToSend = false;
+            break;
+        case KeyEvent.KEYCODE_SPACE:
+            // Only send spaces once we are filtered
+            okToSend = mFiltered;
+            break;
         }
 
-        @Override
-        public void writeToParcel(Parcel out, int flags) {
+        if (okToSend) {
+            createTextFilter();
+
+            KeyEvent forwardEvent = event;
+            if (forwardEvent.getRepeatCount() > 0) {
+                forwardEvent = KeyEvent.changeTimeRepeat(event,
+                        event.getEventTime(), 0);
+            }
+
+            int action = event.getAction();
+            switch (action) {
+            case KeyEvent.ACTION_DOWN:
+                handled = mTextFilter.onKeyDown(keyCode, forwardEvent);
+                break;
+
+            case KeyEvent.ACTION_UP:
+                handled = mTextFilter.onKeyUp(keyCode, forwardEvent);
+                break;
+
+            case KeyEvent.ACTION_MULTIPLE:
+                handled = mTextFilter.onKeyMultiple(keyCode, count, event);
+                break;
+            }
+        }
+        return handled;
+    }
+
+    /**
+     * Creates the window for the text filter and populates it with an
+     * EditText field.
+     */
+    private void createTextFilter() {
+        if (mPopup == null) {
+            final Context c = getContext();
+            final PopupWindow p = new PopupWindow(c);
+            final EditText textFilter = new EditText(c);
+            textFilter.setSingleLine();
+            // For some reason setting this as the "real" input type changes
+            // the text view in some way that it doesn't work, and I don't
+            // want to figure out why this is.
+            textFilter.setRawInputType(EditorInfo.TYPE_CLASS_TEXT
+                    | EditorInfo.TYPE_TEXT_VARIATION_FILTER);
+            textFilter.setImeOptions(EditorInfo.IME_FLAG_NO_EXTRACT_UI);
+            textFilter.addTextChangedListener(this);
+            mTextFilter = textFilter;
+            p.setFocusable(false);
+            p.setTouchable(false);
+            p.setInputMethodMode(PopupWindow.INPUT_METHOD_NOT_NEEDED);
+            p.setContentView(textFilter);
+            p.setWidth(ViewGroup.LayoutParams.WRAP_CONTENT);
+            p.setHeight(ViewGroup.LayoutParams.WRAP_CONTENT);
+            p.setBackgroundDrawable(null);
+            mPopup = p;
+            getViewTreeObserver().addOnGlobalLayoutListener(this);
+            mGlobalLayoutListenerAddedFilter = true;
+        }
+    }
+
+    /**
+     * Shows the filter window
+     */
+    private void showPopup() {
+        // Make sure we have a window before showing the popup
+        if (getWindowVisibility() == View.VISIBLE) {
+            createTextFilter();
+            positionPopup();
+            // Make sure we get focus if we are showing the popup
+            checkFocus();
+        }
+    }
+
+    private void positionPopup() {
+        final int screenHeight = getResources().getDisplayMetrics().heightPixels;
+        final int[] xy = new int[2];
+        getLocationOnScreen(xy);
+        final int bottomGap = screenHeight - xy[1] - getHeight()
+                + (int) (getResources().getDisplayMetrics().density * 20);
+        if (!mPopup.isShowing()) {
+            mPopup.showAtLocation(this, Gravity.BOTTOM
+                    | Gravity.CENTER_HORIZONTAL, xy[0], bottomGap);
+        } else {
+            mPopup.update(xy[0], bottomGap, -1, -1);
+        }
+    }
+
+    /**
+     * Removes the filter window
+     */
+    private void dismissPopup() {
+        if (mPopup != null) {
+            mPopup.dismiss();
+        }
+    }
+
+    /**
+     * Sets the initial value for the text filter.
+     * 
+     * @param filterText
+     *            The text to use for the filter.
+     * 
+     * @see #setTextFilterEnabled
+     */
+    public void setFilterText(String filterText) {
+        if (mTextFilterEnabled && !TextUtils.isEmpty(filterText)) {
+            createTextFilter();
+            // This is going to call our listener onTextChanged, but we might
+            // not be ready to bring up a window yet
+            mTextFilter.setText(filterText);
+            mTextFilter.setSelection(filterText.length());
+            if (mAdapter instanceof Filterable) {
+                // Filter right away rather than after the typing pause
+                if (mTextFilterRunner != null) {
+                    removeCallbacks(mTextFilterRunner);
+                }
+                runTextFilter();
+                mFiltered = true;
+                if (mDataSetObserver != null) {
+                    mDataSetObserver.clearSavedState();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the list's text filter, if available.
+     * 
+     * @return the list's text filter or null if filtering isn't enabled
+     */
+    public CharSequence getTextFilter() {
+        if (mTextFilterEnabled && mTextFilter != null) {
+            return mTextFilter.getText();
+        }
+        return null;
+    }
+
+    /**
+     * Clear the text filter.
+     */
+    public void clearTextFilter() {
+        if (mFiltered) {
+            mTextFilter.setText("");
+            mFiltered = false;
+            if (mPopup != null && mPopup.isShowing()) {
+                dismissPopup();
+            }
+        }
+    }
+
+    /**
+     * Returns if the ListView currently has a text filter.
+     */
+    public boolean hasTextFilter() {
+        return mFiltered;
+    }
+
+    @Override
+    public void onGlobalLayout() {
+        if (isShown()) {
+            // Show the popup if we are filtered
+            if (mFiltered && mPopup != null && !mPopup.isShowing()) {
+                showPopup();
+            }
+        } else {
+            // Hide the popup when we are no longer visible
+            if (mPopup != null && mPopup.isShowing()) {
+                dismissPopup();
+            }
+        }
+    }
+
+    /**
+     * For our text watcher that is associated with the text filter. Does
+     * nothing.
+     */
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count,
+            int after) {
+    }
+
+    /**
+     * For our text watcher that is associated with the text filter. Shows or
+     * hides the filter window and schedules the filtering for when typing
+     * pauses.
+     */
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        if (mPopup != null && isTextFilterEnabled()) {
+            final int length = s.length();
+            final boolean showing = mPopup.isShowing();
+            if (!showing && length > 0) {
+                // Show the filter popup if necessary
+                showPopup();
+                mFiltered = true;
+            } else if (showing && length == 0) {
+                // Remove the filter popup if the user has cleared all text
+                dismissPopup();
+                mFiltered = false;
+            }
+            if (mAdapter instanceof Filterable) {
+                if (mTextFilterRunner == null) {
+                    mTextFilterRunner = new Runnable() {
+                        @Override
+                        public void run() {
+                            runTextFilter();
+                        }
+                    };
+                }
+                removeCallbacks(mTextFilterRunner);
+                if (mTextFilterDelay > 0) {
+                    postDelayed(mTextFilterRunner, mTextFilterDelay);
+                } else {
+                    runTextFilter();
+                }
+            }
+        }
+    }
+
+    /**
+     * For our text watcher that is associated with the text filter. Does
+     * nothing.
+     */
+    @Override
+    public void afterTextChanged(Editable s) {
+    }
+
+    /**
+     * Hands the text typed so far to the filter of the adapter, which filters
+     * on its own worker thread. A constraint that extends the one of the last
+     * completed filtering is given to the refining filter of a
+     * {@link RefiningFilterable} adapter, provided no other filtering is
+     * still on its way. The two filters have separate worker threads, so a
+     * filtering is held back while the other filter is still running and
+     * could publish after it.
+     */
+    private void runTextFilter() {
+        if (!(mAdapter instanceof Filterable) || mTextFilter == null) {
+            return;
+        }
+        final Editable text = mTextFilter.getText();
+        final String constraint = text != null ? text.toString() : "";
+        Filter filter = null;
+        final String completed = mCompletedFilterText;
+        final TextFilterRequest previous = mTextFilterRequest;
+        final boolean running = previous != null && !previous.mComplete;
+        if (mAdapter instanceof RefiningFilterable && completed != null
+                && completed.length() > 0
+                && constraint.length() > completed.length()
+                && constraint.startsWith(completed) && !running) {
+            filter = ((RefiningFilterable) mAdapter).getRefiningFilter();
+        }
+        if (filter == null) {
+            filter = ((Filterable) mAdapter).getFilter();
+        }
+        if (filter == null) {
+            return;
+        }
+        if (running && previous.mFilter != filter) {
+            // Runs when the previous filtering completes
+            mTextFilterDeferred = true;
+            return;
+        }
+        mTextFilterDeferred = false;
+        final TextFilterRequest request = new TextFilterRequest(filter,
+                constraint);
+        mTextFilterRequest = request;
+        // Until this filtering completes the published results no longer
+        // match any constraint a refinement could start from
+        mCompletedFilterText = null;
+        filter.filter(constraint, request);
+    }
+
+    /**
+     * One filtering handed to the adapter. The filter drops requests that
+     * are superseded before they start and still publishes those that were
+     * running; only the completion of the latest request is acted upon.
+     */
+    private final class TextFilterRequest implements Filter.FilterListener {
+        final Filter mFilter;
+        final String mConstraint;
+        boolean mComplete;
+
+        TextFilterRequest(Filter filter, String constraint) {
+            mFilter = filter;
+            mConstraint = constraint;
+        }
+
+        @Override
+        public void onFilterComplete(int count) {
+            mComplete = true;
+            if (mTextFilterRequest != this) {
+                return;
+            }
+            mCompletedFilterText = mConstraint;
+            if (mTextFilterDeferred) {
+                runTextFilter();
+                return;
+            }
+            if (mSelectedPosition < 0 && count > 0) {
+                mResurrectToPosition = INVALID_POSITION;
+                resurrectSelection();
+            }
+        }
+    }
+
+    /**
+     * Our text filter is the input connection proxy of this view.
+     */
+    @Override
+    public boolean checkInputConnectionProxy(View view) {
+        return view == mTextFilter;
+    }
+
+    @Override
+    public void getFocusedRect(Rect r) {
+        View view = getSelectedView();
+        if (view != null && view.getParent() == this) {
+            // the focused rectangle of the selected view offset into the
+            // coordinate space of this view.
+            view.getFocusedRect(r);
+            offsetDescendantRectToMyCoords(view, r);
+        } else {
+            // otherwise, just the norm
+            super.getFocusedRect(r);
+        }
+    }
+
+    private void useDefaultSelector() {
+        setSelector(getResources().getDrawable(
+                R.drawable.list_selector_background));
+    }
+
+    void requestLayoutIfNecessary() {
+        if (getChildCount() > 0) {
+            resetList();
+            requestLayout();
+            invalidate();
+        }
+    }
+
+    static class SavedState extends BaseSavedState {
+        long selectedId;
+        long firstId;
+        int viewLeft;
+        int position;
+        int width;
+        String filter;
+        boolean inActionMode;
+        int checkedItemCount;
+
+        /**
+         * The checked positions as runs of consecutive positions: the first
+         * position and the length of each run, one after the other
+         */
+        int[] checkedRuns;
+
+        /**
+         * The ids of the checked items and the positions they were checked
+         * at, in the same order
+         */
+        long[] checkedIds;
+        int[] checkedIdPositions;
+
+        /**
+         * Constructor called from
+         * {@link AbsHorizontalListView#onSaveInstanceState()}
+         */
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        /**
+         * Constructor called from {@link #CREATOR}
+         */
+        private SavedState(Parcel in) {
+            super(in);
+            selectedId = in.readLong();
+            firstId = in.readLong();
+            viewLeft = in.readInt();
+            position = in.readInt();
+            width = in.readInt();
+            filter = in.readString();
+            inActionMode = in.readByte() != 0;
+            checkedItemCount = in.readInt();
+            checkedRuns = in.createIntArray();
+            checkedIds = in.createLongArray();
+            checkedIdPositions = in.createIntArray();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
             super.writeToParcel(out, flags);
             out.writeLong(selectedId);
             out.writeLong(firstId);
@@ -1444,13 +2868,52 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             out.writeString(filter);
             out.writeByte((byte) (inActionMode ? 1 : 0));
             out.writeInt(checkedItemCount);
-            out.writeSparseBooleanArray(checkState);
-            final int N = checkIdState != null ? checkIdState.size() : 0;
-            out.writeInt(N);
-            for (Map.Entry<Long, Integer> entry : checkIdState.entrySet()) {
-                out.writeLong(entry.getKey());
-                out.writeInt(entry.getValue());
+            out.writeIntArray(checkedRuns);
+            out.writeLongArray(checkedIds);
+            out.writeIntArray(checkedIdPositions);
+        }
+
+        /**
+         * @return The checked positions of <code>states</code> as runs
+         */
+        static int[] encodeRuns(SparseBooleanArray states) {
+            final int size = states.size();
+            int[] runs = new int[8];
+            int count = 0;
+            int runEnd = INVALID_POSITION;
+            for (int i = 0; i < size; i++) {
+                if (!states.valueAt(i)) {
+                    continue;
+                }
+                final int position = states.keyAt(i);
+                if (count > 0 && position == runEnd) {
+                    runs[count - 1]++;
+                } else {
+                    if (count == runs.length) {
+                        runs = Arrays.copyOf(runs, count * 2);
+                    }
+                    runs[count++] = position;
+                    runs[count++] = 1;
+                }
+                runEnd = position + 1;
+            }
+            return Arrays.copyOf(runs, count);
+        }
+
+        /**
+         * @return The check states encoded by
+         *         {@link #encodeRuns(SparseBooleanArray)}
+         */
+        static SparseBooleanArray decodeRuns(int[] runs) {
+            final SparseBooleanArray states = new SparseBooleanArray();
+            for (int i = 0; i < runs.length; i += 2) {
+                final int end = runs[i] + runs[i + 1];
+                for (int position = runs[i]; position < end; position++) {
+                    // Positions come in ascending order
+                    states.append(position, true);
+                }
             }
+            return states;
         }
 
         @Override
@@ -1459,8 +2922,8 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                     + Integer.toHexString(System.identityHashCode(this))
                     + " selectedId=" + selectedId + " firstId=" + firstId
                     + " viewLeft=" + viewLeft + " position=" + position
-                    + " width=" + width + " filter=" + filter + " checkState="
-                    + checkState + "}";
+                    + " width=" + width + " filter=" + filter
+                    + " checkedItemCount=" + checkedItemCount + "}";
         }
 
         public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
@@ -1503,7 +2966,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 // and the user wouldn't expect to end up somewhere else when
                 // they revisit the list even if its content has changed.
                 View v = getChildAt(0);
-                ss.viewLeft = v.getLeft();
+                ss.viewLeft = getChildLeftInViewport(v);
                 int firstPos = mFirstPosition;
                 if (firstPos >= mItemCount) {
                     firstPos = mItemCount - 1;
@@ -1532,10 +2995,20 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 && mChoiceActionMode != null;
 
         if (mCheckStates != null) {
-            ss.checkState = mCheckStates.clone();
+            ss.checkedRuns = SavedState.encodeRuns(mCheckStates);
         }
         if (mCheckedIdStates != null) {
-            ss.checkIdState = new HashMap<Long, Integer>(mCheckedIdStates);
+            final int count = mCheckedIdStates.size();
+            final long[] ids = new long[count];
+            final int[] positions = new int[count];
+            int i = 0;
+            for (Map.Entry<Long, Integer> entry : mCheckedIdStates.entrySet()) {
+                ids[i] = entry.getKey();
+                positions[i] = entry.getValue();
+                i++;
+            }
+            ss.checkedIds = ids;
+            ss.checkedIdPositions = positions;
         }
         ss.checkedItemCount = mCheckedItemCount;
 
@@ -1570,14 +3043,23 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             mSyncMode = SYNC_FIRST_POSITION;
         }
 
-        if (ss.checkState != null) {
-            mCheckStates = ss.checkState;
+        if (ss.checkedRuns != null) {
+            mCheckStates = SavedState.decodeRuns(ss.checkedRuns);
         }
 
-        if (ss.checkIdState != null) {
-            mCheckedIdStates = ss.checkIdState;
+        if (ss.checkedIds != null) {
+            final long[] ids = ss.checkedIds;
+            final int[] positions = ss.checkedIdPositions;
+            final HashMap<Long, Integer> idStates = new HashMap<Long, Integer>(
+                    Math.max(16, ids.length * 4 / 3 + 1));
+            for (int i = 0; i < ids.length; i++) {
+                idStates.put(ids[i], positions[i]);
+            }
+            mCheckedIdStates = idStates;
         }
 
+        setFilterText(ss.filter);
+
         mCheckedItemCount = ss.checkedItemCount;
 
         if (ss.inActionMode && mChoiceMode == CHOICE_MODE_MULTIPLE_MODAL
@@ -1607,66 +3089,371 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
     @Override
     public void requestLayout() {
         if (!mBlockLayoutRequests && !mInLayout) {
+            if (mCoalesceUpdates && !isLayoutRequested()) {
+                mCoalescedLayoutRequest = true;
+                scheduleCoalescedUpdate();
+                return;
+            }
             super.requestLayout();
         }
     }
 
     /**
-     * The list is empty. Clear everything out.
+     * Register a callback to be invoked after every layout pass with the time
+     * spent in each of its phases. Profiling has no cost while no listener is
+     * registered, and does not allocate while one is.
+     * 
+     * @param listener
+     *            The callback that will run, or null to stop profiling
      */
-    void resetList() {
-        removeAllViewsInLayout();
-        mFirstPosition = 0;
-        mDataChanged = false;
-        mPositionScrollAfterLayout = null;
-        mNeedSync = false;
-        mOldSelectedPosition = INVALID_POSITION;
-        mOldSelectedColId = INVALID_COL_ID;
-        setSelectedPositionInt(INVALID_POSITION);
-        setNextSelectedPositionInt(INVALID_POSITION);
-        mSelectedLeft = 0;
-        mSelectorPosition = INVALID_POSITION;
-        mSelectorRect.setEmpty();
-        invalidate();
+    public void setOnLayoutProfileListener(OnLayoutProfileListener listener) {
+        mOnLayoutProfileListener = listener;
+        if (listener == null) {
+            mLayoutProfile = null;
+        } else if (mLayoutProfile == null) {
+            mLayoutProfile = new LayoutProfile();
+        }
     }
 
-    @Override
-    protected int computeHorizontalScrollExtent() {
-        final int count = getChildCount();
-        if (count > 0) {
-            if (mSmoothScrollbarEnabled) {
-                int extent = count * 100;
-
-                View view = getChildAt(0);
-                final int left = view.getLeft();
-                int width = view.getWidth();
-                if (width > 0) {
-                    extent += (left * 100) / width;
-                }
+    /**
+     * Register a callback to be invoked with the frame statistics of every
+     * touch scroll and fling when it comes to rest: how many frames missed a
+     * vsync, the longest frame, and whether layout, obtainView or drawing ran
+     * during the slow frames. Monitoring has no cost while no listener is
+     * registered.
+     * 
+     * @param listener
+     *            The callback that will run, or null to stop monitoring
+     */
+    public void setOnScrollJankListener(OnScrollJankListener listener) {
+        mOnScrollJankListener = listener;
+        if (listener == null) {
+            if (mJankMonitor != null && mJankMonitor.isRunning()) {
+                mJankMonitor.stop();
+            }
+            mJankMonitor = null;
+        } else if (mJankMonitor == null) {
+            mJankMonitor = new ScrollJankMonitor();
+        }
+    }
 
-                view = getChildAt(count - 1);
-                final int right = view.getRight();
-                width = view.getWidth();
-                if (width > 0) {
-                    extent -= ((right - getWidth()) * 100) / width;
-                }
+    /**
+     * Register callbacks to be invoked when items become visible and hidden.
+     * An item is visible once at least <code>threshold</code> of its width
+     * has been inside the padding of the list for <code>dwellMillis</code>
+     * without interruption, and hidden as soon as it drops below the
+     * threshold again. The visible fractions are kept up to date as the
+     * children move, without allocating while scrolling.
+     * 
+     * @param listener
+     *            The callbacks that will run, or null to stop tracking
+     * @param threshold
+     *            The fraction of the width of an item that must be on screen,
+     *            in (0, 1]
+     * @param dwellMillis
+     *            How long an item must stay above the threshold before it is
+     *            reported, in milliseconds
+     */
+    public void setOnItemVisibilityListener(OnItemVisibilityListener listener,
+            float threshold, int dwellMillis) {
+        if (mVisibilityTracker != null) {
+            mVisibilityTracker.clear();
+            mVisibilityTracker = null;
+        }
+        if (listener == null) {
+            return;
+        }
+        if (!(threshold > 0 && threshold <= 1)) {
+            throw new IllegalArgumentException("threshold must be in (0, 1]: "
+                    + threshold);
+        }
+        if (dwellMillis < 0) {
+            throw new IllegalArgumentException("dwellMillis must not be negative: "
+                    + dwellMillis);
+        }
+        mVisibilityTracker = new VisibilityTracker(this, listener, threshold,
+                dwellMillis);
+        if (mIsAttached) {
+            mVisibilityTracker.update();
+        }
+    }
 
-                return extent;
-            } else {
-                return 1;
-            }
+    private void startJankMonitor(int state) {
+        float refreshRate = ((WindowManager) getContext().getSystemService(
+                Context.WINDOW_SERVICE)).getDefaultDisplay().getRefreshRate();
+        if (refreshRate < 10.0f) {
+            // Some devices report nonsense
+            refreshRate = 60.0f;
         }
-        return 0;
+        mJankMonitor.start(getScrollClock(), (long) (1000000000L / refreshRate),
+                state);
     }
 
-    @Override
-    protected int computeHorizontalScrollOffset() {
+    /**
+     * Starts profiling a layout pass if a profile listener is registered.
+     * 
+     * @return The record of the pass, or null if profiling is disabled
+     */
+    LayoutProfile beginLayoutProfile() {
+        final LayoutProfile profile = mLayoutProfile;
+        if (profile != null) {
+            profile.reset();
+            profile.totalNanos = System.nanoTime();
+            mActiveLayoutProfile = profile;
+        }
+        return profile;
+    }
+
+    /**
+     * Finishes the pass started by {@link #beginLayoutProfile()} and reports
+     * it.
+     */
+    void endLayoutProfile(LayoutProfile profile) {
+        mActiveLayoutProfile = null;
+        profile.totalNanos = System.nanoTime() - profile.totalNanos;
+        if (mOnLayoutProfileListener != null) {
+            mOnLayoutProfileListener.onLayoutProfile(this, profile);
+        }
+    }
+
+    /**
+     * Enables coalescing of updates. While enabled, data set change
+     * notifications, selection changes and layout requests made within the
+     * same frame are recorded and processed once on the next animation frame,
+     * so that a burst of updates costs a single sync and a single layout.
+     * 
+     * @param enabled
+     *            true to coalesce updates
+     */
+    public void setCoalesceUpdatesEnabled(boolean enabled) {
+        if (mCoalesceUpdates == enabled) {
+            return;
+        }
+        mCoalesceUpdates = enabled;
+        if (!enabled) {
+            if (mCoalescedUpdate != null) {
+                removeCallbacks(mCoalescedUpdate);
+            }
+            mCoalescedUpdateScheduled = false;
+            runCoalescedUpdate();
+        }
+    }
+
+    /**
+     * @return true if updates are coalesced
+     * @see #setCoalesceUpdatesEnabled(boolean)
+     */
+    public boolean isCoalesceUpdatesEnabled() {
+        return mCoalesceUpdates;
+    }
+
+    /**
+     * Enables viewport translation while scrolling. Instead of moving every
+     * visible child on each scroll step, the children keep the coordinates
+     * they were laid out in and the list draws them through a single canvas
+     * translation, so a scroll step costs the same whatever the number of
+     * visible children. The children are moved to their real location when
+     * the scroll comes to rest, before layouts, key and touch handling, and
+     * whenever the translation grows large enough to lose precision.
+     * 
+     * @param enabled
+     *            true to translate the viewport while scrolling
+     */
+    public void setViewportTranslationEnabled(boolean enabled) {
+        if (mViewportTranslation == enabled) {
+            return;
+        }
+        mViewportTranslation = enabled;
+        if (!enabled) {
+            rebaseViewport();
+        }
+    }
+
+    /**
+     * @return true if scrolling translates the viewport
+     * @see #setViewportTranslationEnabled(boolean)
+     */
+    public boolean isViewportTranslationEnabled() {
+        return mViewportTranslation;
+    }
+
+    /**
+     * Returns the left edge of a child as it is drawn, which differs from
+     * {@link View#getLeft()} while a viewport translation is pending.
+     * 
+     * @param child
+     *            A child of this list
+     * @return The left edge of the child in the coordinates of this list
+     */
+    public int getChildLeftInViewport(View child) {
+        return child.getLeft() + mViewportOffset;
+    }
+
+    /**
+     * Returns the right edge of a child as it is drawn, which differs from
+     * {@link View#getRight()} while a viewport translation is pending.
+     * 
+     * @param child
+     *            A child of this list
+     * @return The right edge of the child in the coordinates of this list
+     */
+    public int getChildRightInViewport(View child) {
+        return child.getRight() + mViewportOffset;
+    }
+
+    /**
+     * Moves the children by <code>offset</code>, either by offsetting each of
+     * them or, with viewport translation enabled, by moving the translation.
+     */
+    void offsetChildrenInViewport(int offset) {
+        if (!mViewportTranslation) {
+            offsetChildrenLeftAndRight(offset);
+            return;
+        }
+        mViewportOffset += offset;
+        if (Math.abs(mViewportOffset) >= VIEWPORT_REBASE_LIMIT) {
+            rebaseViewport();
+        }
+    }
+
+    /**
+     * Applies the pending viewport translation to the children so that their
+     * coordinates match where they are drawn again.
+     */
+    void rebaseViewport() {
+        final int offset = mViewportOffset;
+        if (offset != 0) {
+            mViewportOffset = 0;
+            offsetChildrenLeftAndRight(offset);
+        }
+    }
+
+    private void scheduleCoalescedUpdate() {
+        if (mCoalescedUpdateScheduled) {
+            return;
+        }
+        if (mCoalescedUpdate == null) {
+            mCoalescedUpdate = new Runnable() {
+                @Override
+                public void run() {
+                    mCoalescedUpdateScheduled = false;
+                    runCoalescedUpdate();
+                }
+            };
+        }
+        mCoalescedUpdateScheduled = true;
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN) {
+            // Runs from the Choreographer before this frame's traversal.
+            postOnAnimation(mCoalescedUpdate);
+        } else {
+            post(mCoalescedUpdate);
+        }
+    }
+
+    /**
+     * Runs the sync bookkeeping of a coalesced data set change, if any, and
+     * passes a single layout request on.
+     */
+    private void runCoalescedUpdate() {
+        final boolean dataChanged = mCoalescedDataChange;
+        processCoalescedDataChange();
+        if (dataChanged || mCoalescedLayoutRequest) {
+            mCoalescedLayoutRequest = false;
+            super.requestLayout();
+        }
+    }
+
+    private void processCoalescedDataChange() {
+        if (mCoalescedDataChange) {
+            mCoalescedDataChange = false;
+            rememberSyncState();
+            checkFocus();
+        }
+    }
+
+    /**
+     * Moves the first and selected positions to where the data set changes
+     * since the last layout took their items, if the adapter described all
+     * of them. Called before {@link #handleDataChanged()}, once the old
+     * children have been looked up.
+     */
+    void applyChangeRanges() {
+        final ChangeRangeTracker tracker = mChangeRangeTracker;
+        if (tracker.isComplete() && mItemCount > 0) {
+            // Items removed at the end map to the position after the last
+            final int last = mItemCount - 1;
+            mFirstPosition = Math.min(tracker.getFirstPosition(), last);
+            if (mNeedSync && mSyncMode == SYNC_FIRST_POSITION) {
+                mSyncPosition = mFirstPosition;
+                mSyncColId = getItemIdAtPosition(mFirstPosition);
+            }
+            if (mSelectedPosition >= 0) {
+                // Also moves a selection sync along with its new id
+                setNextSelectedPositionInt(Math.min(
+                        tracker.getSelectedPosition(), last));
+            }
+        }
+        tracker.reset();
+    }
+
+    /**
+     * The list is empty. Clear everything out.
+     */
+    void resetList() {
+        removeAllViewsInLayout();
+        mChangeRangeTracker.reset();
+        mFirstPosition = 0;
+        mDataChanged = false;
+        mPositionScrollAfterLayout = null;
+        mPendingPageChange = false;
+        mNeedSync = false;
+        mOldSelectedPosition = INVALID_POSITION;
+        mOldSelectedColId = INVALID_COL_ID;
+        setSelectedPositionInt(INVALID_POSITION);
+        setNextSelectedPositionInt(INVALID_POSITION);
+        mSelectedLeft = 0;
+        mSelectorPosition = INVALID_POSITION;
+        mSelectorRect.setEmpty();
+        invalidate();
+    }
+
+    @Override
+    protected int computeHorizontalScrollExtent() {
+        final int count = getChildCount();
+        if (count > 0) {
+            if (mSmoothScrollbarEnabled) {
+                int extent = count * 100;
+
+                View view = getChildAt(0);
+                final int left = getChildLeftInViewport(view);
+                int width = view.getWidth();
+                if (width > 0) {
+                    extent += (left * 100) / width;
+                }
+
+                view = getChildAt(count - 1);
+                final int right = getChildRightInViewport(view);
+                width = view.getWidth();
+                if (width > 0) {
+                    extent -= ((right - getWidth()) * 100) / width;
+                }
+
+                return extent;
+            } else {
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    protected int computeHorizontalScrollOffset() {
         final int firstPosition = mFirstPosition;
         final int childCount = getChildCount();
         if (firstPosition >= 0 && childCount > 0) {
             if (mSmoothScrollbarEnabled) {
                 final View view = getChildAt(0);
-                final int left = view.getLeft();
+                final int left = getChildLeftInViewport(view);
                 int width = view.getWidth();
                 if (width > 0) {
                     return Math.max(firstPosition
@@ -1720,7 +3507,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 return 1.0f;
             }
 
-            final int left = getChildAt(0).getLeft();
+            final int left = getChildLeftInViewport(getChildAt(0));
             final float fadeLength = (float) getHorizontalFadingEdgeLength();
             return left < getPaddingLeft() ? (float) -(left - getPaddingLeft())
                     / fadeLength : fadeEdge;
@@ -1738,7 +3525,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 return 1.0f;
             }
 
-            final int right = getChildAt(count - 1).getRight();
+            final int right = getChildRightInViewport(getChildAt(count - 1));
             final int width = getWidth();
             final float fadeLength = (float) getHorizontalFadingEdgeLength();
             return right > width - getPaddingRight() ? (float) (right - width + getPaddingRight())
@@ -1778,6 +3565,11 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
         super.onLayout(changed, l, t, r, b);
+
+        // A layout that happens before the coalesced update ran handles it.
+        processCoalescedDataChange();
+        mCoalescedLayoutRequest = false;
+
         mInLayout = true;
         if (changed) {
             int childCount = getChildCount();
@@ -1791,7 +3583,12 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         // mFastScroller.onItemCountChanged(mOldItemCount, mItemCount);
         // }
 
+        final ScrollJankMonitor jankMonitor = mJankMonitor;
+        final long layoutStart = jankMonitor != null ? System.nanoTime() : 0;
         layoutChildren();
+        if (jankMonitor != null) {
+            jankMonitor.mLayoutNanos += System.nanoTime() - layoutStart;
+        }
         mInLayout = false;
 
         mOverscrollMax = (r - l) / OVERSCROLL_LIMIT_DIVISOR;
@@ -1813,7 +3610,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             if (!canScrollLeft) {
                 if (getChildCount() > 0) {
                     View child = getChildAt(0);
-                    canScrollLeft = child.getLeft() < mListPadding.left;
+                    canScrollLeft = getChildLeftInViewport(child) < mListPadding.left;
                 }
             }
 
@@ -1831,7 +3628,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             // ... Or bottom of the last element is not visible
             if (!canScrollRight && count > 0) {
                 View child = getChildAt(count - 1);
-                canScrollRight = child.getRight() > getRight()
+                canScrollRight = getChildRightInViewport(child) > getRight()
                         - mListPadding.right;
             }
 
@@ -1921,16 +3718,36 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         isScrap[0] = false;
         View scrapView;
 
+        final LayoutProfile profile = mActiveLayoutProfile;
+        final ScrollJankMonitor jankMonitor = mJankMonitor;
+        final long obtainStart = profile != null || jankMonitor != null ? System
+                .nanoTime() : 0;
+
         scrapView = mRecycler.getTransientStateView(position);
         if (scrapView != null) {
+            if (profile != null) {
+                profile.viewsReused++;
+                profile.obtainViewNanos += System.nanoTime() - obtainStart;
+            }
+            if (jankMonitor != null) {
+                jankMonitor.mObtainViewNanos += System.nanoTime() - obtainStart;
+            }
             return scrapView;
         }
 
         scrapView = mRecycler.getScrapView(position);
 
         View child;
+        final long getViewStart = profile != null ? System.nanoTime() : 0;
+        final boolean placeholder = mAdapter instanceof PlaceholderAdapter
+                && isBindingPlaceholders();
         if (scrapView != null) {
-            child = mAdapter.getView(position, scrapView, this);
+            child = placeholder ? ((PlaceholderAdapter) mAdapter)
+                    .getPlaceholderView(position, scrapView, this) : mAdapter
+                    .getView(position, scrapView, this);
+            if (profile != null) {
+                profile.getViewNanos += System.nanoTime() - getViewStart;
+            }
 
             // if (child.getImportantForAccessibility() ==
             // IMPORTANT_FOR_ACCESSIBILITY_AUTO) {
@@ -1942,12 +3759,24 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 if (mCacheColorHint != 0) {
                     child.setDrawingCacheBackgroundColor(mCacheColorHint);
                 }
+                if (profile != null) {
+                    profile.viewsCreated++;
+                }
             } else {
                 isScrap[0] = true;
                 mHideApiProxy.dispatchFinishTemporaryDetach(child);
+                if (profile != null) {
+                    profile.viewsRebound++;
+                }
             }
         } else {
-            child = mAdapter.getView(position, null, this);
+            child = placeholder ? ((PlaceholderAdapter) mAdapter)
+                    .getPlaceholderView(position, null, this) : mAdapter
+                    .getView(position, null, this);
+            if (profile != null) {
+                profile.getViewNanos += System.nanoTime() - getViewStart;
+                profile.viewsCreated++;
+            }
 
             // if (child.getImportantForAccessibility() ==
             // IMPORTANT_FOR_ACCESSIBILITY_AUTO) {
@@ -1959,7 +3788,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             }
         }
 
-        if (mAdapterHasStableIds) {
+        if (mAdapterHasStableIds || mAdapter instanceof PlaceholderAdapter) {
             final ViewGroup.LayoutParams vlp = child.getLayoutParams();
             LayoutParams lp;
             if (vlp == null) {
@@ -1969,10 +3798,22 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             } else {
                 lp = (LayoutParams) vlp;
             }
-            lp.itemId = mAdapter.getItemId(position);
+            if (mAdapterHasStableIds) {
+                lp.itemId = mItemInfo.getItemId(position);
+            }
+            lp.placeholder = placeholder;
             child.setLayoutParams(lp);
         }
+        if (placeholder) {
+            mHasPlaceholders = true;
+        }
 
+        if (profile != null) {
+            profile.obtainViewNanos += System.nanoTime() - obtainStart;
+        }
+        if (jankMonitor != null) {
+            jankMonitor.mObtainViewNanos += System.nanoTime() - obtainStart;
+        }
         return child;
     }
 
@@ -1981,9 +3822,9 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             mSelectorPosition = position;
         }
 
-        final Rect selectorRect = mSelectorRect;
-        selectorRect.set(sel.getLeft(), sel.getTop(), sel.getRight(),
-                sel.getBottom());
+        final Rect selectorRect = mSelectorBounds;
+        selectorRect.set(getChildLeftInViewport(sel), sel.getTop(),
+                getChildRightInViewport(sel), sel.getBottom());
         if (sel instanceof SelectionBoundsAdjuster) {
             ((SelectionBoundsAdjuster) sel)
                     .adjustListItemSelectionBounds(selectorRect);
@@ -2001,14 +3842,36 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
     }
 
     private void positionSelector(int l, int t, int r, int b) {
-        mSelectorRect.set(l - mSelectionLeftPadding, t - mSelectionTopPadding,
-                r + mSelectionRightPadding, b + mSelectionBottomPadding);
+        final Rect selectorRect = mSelectorRect;
+        final int left = l - mSelectionLeftPadding;
+        final int top = t - mSelectionTopPadding;
+        final int right = r + mSelectionRightPadding;
+        final int bottom = b + mSelectionBottomPadding;
+        if (selectorRect.left != left || selectorRect.top != top
+                || selectorRect.right != right || selectorRect.bottom != bottom) {
+            // Redraw where the selector was and where it goes, not the whole
+            // list
+            invalidateSelector();
+            selectorRect.set(left, top, right, bottom);
+            invalidateSelector();
+        }
+    }
+
+    /**
+     * Invalidates the area the selector is drawn in.
+     */
+    void invalidateSelector() {
+        if (!mSelectorRect.isEmpty()) {
+            invalidate(mSelectorRect);
+        }
     }
 
     @Override
     protected void dispatchDraw(Canvas canvas) {
+        final ScrollJankMonitor jankMonitor = mJankMonitor;
+        final long drawStart = jankMonitor != null ? System.nanoTime() : 0;
         int saveCount = 0;
-        final boolean clipToPadding = (mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK;
+        final boolean clipToPadding = getClipToPadding();
         if (clipToPadding) {
             saveCount = canvas.save();
             final int scrollX = getScrollX();
@@ -2017,54 +3880,112 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                     + getPaddingTop(), scrollX + getRight() - getLeft()
                     - getPaddingRight(), scrollY + getBottom() - getTop()
                     - getPaddingBottom());
-            mHideApiProxy.mGroupFlags(this, mHideApiProxy.mGroupFlags(this)
-                    & ~CLIP_TO_PADDING_MASK);
         }
 
+        // The clip is the area this frame redraws. Children outside of it are
+        // not drawn at all.
+        mDrawClipValid = canvas.getClipBounds(mDrawClip);
+
         final boolean drawSelectorOnLeft = mDrawSelectorOnLeft;
         if (!drawSelectorOnLeft) {
             drawSelector(canvas);
         }
 
-        super.dispatchDraw(canvas);
+        final int viewportOffset = mViewportOffset;
+        if (viewportOffset != 0) {
+            final int translateCount = canvas.save();
+            canvas.translate(viewportOffset, 0);
+            super.dispatchDraw(canvas);
+            canvas.restoreToCount(translateCount);
+        } else {
+            super.dispatchDraw(canvas);
+        }
 
         if (drawSelectorOnLeft) {
             drawSelector(canvas);
         }
 
+        mDrawClipValid = false;
         if (clipToPadding) {
             canvas.restoreToCount(saveCount);
-            mHideApiProxy.mGroupFlags(this, mHideApiProxy.mGroupFlags(this)
-                    | CLIP_TO_PADDING_MASK);
         }
+
+        if (jankMonitor != null) {
+            jankMonitor.mDrawNanos += System.nanoTime() - drawStart;
+        }
+    }
+
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        // Children are drawn translated by the pending viewport offset
+        dirty.offset(mViewportOffset, 0);
+        return super.invalidateChildInParent(location, dirty);
+    }
+
+    /**
+     * The list clips to its padding itself in
+     * {@link #dispatchDraw(Canvas)}, so the flag of ViewGroup is kept off and
+     * the setting is tracked here, where it can be read without reflection.
+     */
+    @Override
+    public void setClipToPadding(boolean clipToPadding) {
+        // Called from the constructor of ViewGroup, before the fields of this
+        // class are initialized
+        mClipToPaddingDisabled = !clipToPadding;
+        super.setClipToPadding(false);
+        invalidate();
+    }
+
+    /**
+     * @return true if children are clipped to the padding of the list
+     * @see #setClipToPadding(boolean)
+     */
+    public boolean getClipToPadding() {
+        return !mClipToPaddingDisabled;
+    }
+
+    /**
+     * @return true if <code>child</code> lies entirely outside the area being
+     *         redrawn and need not be drawn. Only valid while drawing the
+     *         children.
+     */
+    boolean isChildClipped(View child) {
+        if (!mDrawClipValid || child.getAnimation() != null
+                || !child.getMatrix().isIdentity()) {
+            return false;
+        }
+        final Rect clip = mDrawClip;
+        return getChildRightInViewport(child) <= clip.left
+                || getChildLeftInViewport(child) >= clip.right
+                || child.getBottom() <= clip.top || child.getTop() >= clip.bottom;
     }
 
     @Override
     protected boolean isPaddingOffsetRequired() {
-        return (mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) != CLIP_TO_PADDING_MASK;
+        return !getClipToPadding();
     }
 
     @Override
     protected int getLeftPaddingOffset() {
-        return (mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK ? 0
+        return getClipToPadding() ? 0
                 : -getPaddingLeft();
     }
 
     @Override
     protected int getTopPaddingOffset() {
-        return (mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK ? 0
+        return getClipToPadding() ? 0
                 : -getPaddingTop();
     }
 
     @Override
     protected int getRightPaddingOffset() {
-        return (mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK ? 0
+        return getClipToPadding() ? 0
                 : getPaddingRight();
     }
 
     @Override
     protected int getBottomPaddingOffset() {
-        return (mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK ? 0
+        return getClipToPadding() ? 0
                 : getPaddingBottom();
     }
 
@@ -2284,10 +4205,11 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
         final ViewTreeObserver treeObserver = getViewTreeObserver();
         treeObserver.addOnTouchModeChangeListener(this);
-        // if (mTextFilterEnabled && mPopup != null
-        // && !mGlobalLayoutListenerAddedFilter) {
-        // treeObserver.addOnGlobalLayoutListener(this);
-        // }
+        if (mTextFilterEnabled && mPopup != null
+                && !mGlobalLayoutListenerAddedFilter) {
+            treeObserver.addOnGlobalLayoutListener(this);
+            mGlobalLayoutListenerAddedFilter = true;
+        }
 
         if (mAdapter != null && mDataSetObserver == null) {
             mDataSetObserver = new AdapterDataSetObserver();
@@ -2308,8 +4230,19 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         // Detach any view left in the scrap heap
         mRecycler.clear();
 
+        // Dismiss the popup in case onSaveInstanceState() was not invoked
+        dismissPopup();
+
         final ViewTreeObserver treeObserver = getViewTreeObserver();
         treeObserver.removeOnTouchModeChangeListener(this);
+        if (mTextFilterEnabled && mPopup != null) {
+            treeObserver.removeGlobalOnLayoutListener(this);
+            mGlobalLayoutListenerAddedFilter = false;
+        }
+
+        if (mTextFilterRunner != null) {
+            removeCallbacks(mTextFilterRunner);
+        }
 
         if (mAdapter != null) {
             mAdapter.unregisterDataSetObserver(mDataSetObserver);
@@ -2317,13 +4250,33 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         }
 
         if (mFlingRunnable != null) {
-            removeCallbacks(mFlingRunnable);
+            mFlingRunnable.removeFrame();
         }
 
         if (mPositionScroller != null) {
             mPositionScroller.stop();
         }
 
+        if (mJankMonitor != null && mJankMonitor.isRunning()) {
+            mJankMonitor.stop();
+        }
+
+        if (mScrollDispatch != null) {
+            removeCallbacks(mScrollDispatch);
+        }
+
+        if (mVisibilityTracker != null) {
+            mVisibilityTracker.clear();
+        }
+
+        if (mPlaceholderUpgrader != null) {
+            mPlaceholderUpgrader.cancel();
+        }
+
+        if (mScrollingLayersActive) {
+            demoteScrollingLayers();
+        }
+
         if (mClearScrollingCache != null) {
             removeCallbacks(mClearScrollingCache);
         }
@@ -2348,7 +4301,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         if (!hasWindowFocus) {
             setChildrenDrawingCacheEnabled(false);
             if (mFlingRunnable != null) {
-                removeCallbacks(mFlingRunnable);
+                mFlingRunnable.removeFrame();
                 // let the fling runnable report it's new state which
                 // should be idle
                 mFlingRunnable.endFling();
@@ -2367,6 +4320,10 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 mResurrectToPosition = mSelectedPosition;
             }
         } else {
+            if (mFiltered) {
+                // Show the type filter only if a filter is in effect
+                showPopup();
+            }
 
             // If we changed touch mode since the last time we had focus
             if (touchMode != mLastTouchMode
@@ -2625,23 +4582,127 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
      *         item.
      */
     public int pointToPosition(int x, int y) {
-        Rect frame = mTouchFrame;
-        if (frame == null) {
-            mTouchFrame = new Rect();
-            frame = mTouchFrame;
+        if (hasTransformedChild()) {
+            final int index = findChildIndexContaining(x, y);
+            return index >= 0 ? mFirstPosition + index : INVALID_POSITION;
         }
+        final int index = findChildIndexEndingAfter(x, 0);
+        if (index < getChildCount() && childContains(index, x, y)) {
+            return mFirstPosition + index;
+        }
+        return INVALID_POSITION;
+    }
 
+    /**
+     * Maps several points on the same horizontal line to positions in the
+     * list, as if by calling {@link #pointToPosition(int, int)} for each of
+     * them. Points sorted from left to right are mapped fastest.
+     * 
+     * @param xs
+     *            X of each point in local coordinate
+     * @param y
+     *            Y of the points in local coordinate
+     * @param positions
+     *            Receives the position of the item which contains each point,
+     *            or {@link #INVALID_POSITION}. Must be at least as long as
+     *            <code>xs</code>.
+     */
+    public void pointsToPositions(int[] xs, int y, int[] positions) {
+        if (positions.length < xs.length) {
+            throw new IllegalArgumentException("positions is shorter than xs: "
+                    + positions.length + " < " + xs.length);
+        }
+        if (hasTransformedChild()) {
+            for (int i = 0; i < xs.length; i++) {
+                final int index = findChildIndexContaining(xs[i], y);
+                positions[i] = index >= 0 ? mFirstPosition + index
+                        : INVALID_POSITION;
+            }
+            return;
+        }
         final int count = getChildCount();
-        for (int i = count - 1; i >= 0; i--) {
-            final View child = getChildAt(i);
-            if (child.getVisibility() == View.VISIBLE) {
-                child.getHitRect(frame);
-                if (frame.contains(x, y)) {
-                    return mFirstPosition + i;
-                }
+        int index = 0;
+        int lastX = Integer.MIN_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            final int x = xs[i];
+            // Children to the left of the previous point cannot contain a
+            // point further right
+            index = findChildIndexEndingAfter(x, x >= lastX ? index : 0);
+            lastX = x;
+            positions[i] = index < count && childContains(index, x, y) ? mFirstPosition
+                    + index
+                    : INVALID_POSITION;
+        }
+    }
+
+    /**
+     * Finds the first child whose right edge is to the right of
+     * <code>x</code>. Children are laid out from left to right without
+     * overlapping, so this is the only child that can contain <code>x</code>.
+     * 
+     * @param x
+     *            X in local coordinate
+     * @param start
+     *            The index to start searching from
+     * @return The index of the child, or the child count if every child ends
+     *         at or before <code>x</code>.
+     */
+    int findChildIndexEndingAfter(int x, int start) {
+        int low = start;
+        int high = getChildCount();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getChildRightInViewport(getChildAt(mid)) > x) {
+                high = mid;
+            } else {
+                low = mid + 1;
             }
         }
-        return INVALID_POSITION;
+        return low;
+    }
+
+    /**
+     * @return true if a child is translated, scaled or rotated, so that its
+     *         hit rect no longer follows the layout order of the children
+     */
+    private boolean hasTransformedChild() {
+        final int count = getChildCount();
+        for (int i = 0; i < count; i++) {
+            if (!getChildAt(i).getMatrix().isIdentity()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the child whose hit rect contains the point by looking at every
+     * child, the last drawn first.
+     * 
+     * @return The index of the child, or -1 if no child contains the point
+     */
+    private int findChildIndexContaining(int x, int y) {
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            if (childContains(i, x, y)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean childContains(int index, int x, int y) {
+        final View child = getChildAt(index);
+        if (child.getVisibility() != View.VISIBLE) {
+            return false;
+        }
+        Rect frame = mTouchFrame;
+        if (frame == null) {
+            mTouchFrame = new Rect();
+            frame = mTouchFrame;
+        }
+        child.getHitRect(frame);
+        frame.offset(mViewportOffset, 0);
+        return frame.contains(x, y);
     }
 
     /**
@@ -2799,7 +4860,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 int motionViewPrevLeft = 0;
                 View motionView = this.getChildAt(motionIndex);
                 if (motionView != null) {
-                    motionViewPrevLeft = motionView.getLeft();
+                    motionViewPrevLeft = getChildLeftInViewport(motionView);
                 }
 
                 // No need to do all this work if we're not going to move anyway
@@ -2813,7 +4874,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 if (motionView != null) {
                     // Check if the top of the motion view is where it is
                     // supposed to be
-                    final int motionViewRealLeft = motionView.getLeft();
+                    final int motionViewRealLeft = getChildLeftInViewport(motionView);
                     if (atEdge) {
                         // Apply overscroll
 
@@ -2887,8 +4948,8 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                     mMotionCorrection = 0;
                     View motionView = getChildAt(motionPosition
                             - mFirstPosition);
-                    mMotionViewOriginalLeft = motionView != null ? motionView
-                            .getLeft() : 0;
+                    mMotionViewOriginalLeft = motionView != null ? getChildLeftInViewport(motionView)
+                            : 0;
                     mMotionX = x;
                     mMotionPosition = motionPosition;
                 }
@@ -2966,6 +5027,10 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
         switch (action & MotionEvent.ACTION_MASK) {
         case MotionEvent.ACTION_DOWN: {
+            rebaseViewport();
+            if (mPagingEnabled) {
+                mPagingStartPage = findSnapPosition(0, 0);
+            }
             switch (mTouchMode) {
             case TOUCH_MODE_OVERFLING: {
                 mFlingRunnable.endFling();
@@ -3017,7 +5082,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 if (motionPosition >= 0) {
                     // Remember where the motion event started
                     v = getChildAt(motionPosition - mFirstPosition);
-                    mMotionViewOriginalLeft = v.getLeft();
+                    mMotionViewOriginalLeft = getChildLeftInViewport(v);
                 }
                 mMotionX = x;
                 mMotionY = y;
@@ -3146,9 +5211,8 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             case TOUCH_MODE_SCROLL:
                 final int childCount = getChildCount();
                 if (childCount > 0) {
-                    final int firstChildLeft = getChildAt(0).getLeft();
-                    final int lastChildRight = getChildAt(childCount - 1)
-                            .getRight();
+                    final int firstChildLeft = getChildLeftInViewport(getChildAt(0));
+                    final int lastChildRight = getChildRightInViewport(getChildAt(childCount - 1));
                     final int contentLeft = mListPadding.left;
                     final int contentRight = getWidth() - mListPadding.right;
                     if (mFirstPosition == 0 && firstChildLeft >= contentLeft
@@ -3163,6 +5227,14 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
                         final int initialVelocity = (int) (velocityTracker
                                 .getXVelocity(mActivePointerId) * mVelocityScale);
+                        if (mPagingEnabled) {
+                            if (mFlingRunnable == null) {
+                                mFlingRunnable = new FlingRunnable();
+                            }
+                            reportScrollStateChange(OnScrollListener.SCROLL_STATE_FLING);
+                            mFlingRunnable.startSnapTo(choosePage(-initialVelocity));
+                            break;
+                        }
                         // Fling if we have enough velocity and we aren't at a
                         // boundary.
                         // Since we can potentially overfling more than we can
@@ -3170,7 +5242,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                         // allow the weird behavior where you can scroll to a
                         // boundary then
                         // fling further.
-                        if (Math.abs(initialVelocity) > mMinimumVelocity
+                        if ((Math.abs(initialVelocity) > mMinimumVelocity || mFlingSnapMode != SNAP_NONE)
                                 && !((mFirstPosition == 0 && firstChildLeft == contentLeft
                                         - mOverscrollDistance) || (mFirstPosition
                                         + childCount == mItemCount && lastChildRight == contentRight
@@ -3221,7 +5293,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
             // Need to redraw since we probably aren't drawing the selector
             // anymore
-            invalidate();
+            invalidateSelector();
 
             final Handler handler = getHandler();
             if (handler != null) {
@@ -3284,7 +5356,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             if (motionPosition >= 0) {
                 // Remember where the motion event started
                 v = getChildAt(motionPosition - mFirstPosition);
-                mMotionViewOriginalLeft = v.getLeft();
+                mMotionViewOriginalLeft = getChildLeftInViewport(v);
                 mMotionPosition = motionPosition;
             }
             mLastX = x;
@@ -3305,7 +5377,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             if (motionPosition >= 0) {
                 // Remember where the motion event started
                 v = getChildAt(motionPosition - mFirstPosition);
-                mMotionViewOriginalLeft = v.getLeft();
+                mMotionViewOriginalLeft = getChildLeftInViewport(v);
                 mMotionPosition = motionPosition;
             }
             mLastX = x;
@@ -3400,6 +5472,8 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
         switch (action & MotionEvent.ACTION_MASK) {
         case MotionEvent.ACTION_DOWN: {
+            // Children are hit tested against their own coordinates
+            rebaseViewport();
             int touchMode = mTouchMode;
             if (touchMode == TOUCH_MODE_OVERFLING
                     || touchMode == TOUCH_MODE_OVERSCROLL) {
@@ -3417,7 +5491,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 // fling).
                 // Remember where the motion event started
                 v = getChildAt(motionPosition - mFirstPosition);
-                mMotionViewOriginalLeft = v.getLeft();
+                mMotionViewOriginalLeft = getChildLeftInViewport(v);
                 mMotionX = x;
                 mMotionY = y;
                 mMotionPosition = motionPosition;
@@ -3517,36 +5591,88 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
      *            The new scroll state.
      */
     void reportScrollStateChange(int newState) {
-        if (newState != mLastScrollState) {
+        if (newState == OnScrollListener.SCROLL_STATE_IDLE) {
+            rebaseViewport();
+            if (mPagingEnabled) {
+                dispatchPageChanged(findSnapPosition(0, 0));
+            }
+        }
+        if (newState != mLastScrollState) {
+            final int oldState = mLastScrollState;
+            mLastScrollState = newState;
+            if (mHasPlaceholders) {
+                upgradePlaceholders();
+            }
+            if (mJankMonitor != null) {
+                if (newState == OnScrollListener.SCROLL_STATE_IDLE) {
+                    if (mJankMonitor.isRunning()) {
+                        mOnScrollJankListener.onScrollJank(this,
+                                mJankMonitor.stop());
+                    }
+                } else if (oldState == OnScrollListener.SCROLL_STATE_IDLE) {
+                    startJankMonitor(newState);
+                }
+            }
             if (mOnScrollListener != null) {
-                mLastScrollState = newState;
                 mOnScrollListener.onScrollStateChanged(this, newState);
             }
+            final ScrollListenerRecord[] records = mScrollListeners;
+            if (records != null) {
+                for (ScrollListenerRecord record : records) {
+                    record.listener.onScrollStateChanged(this, newState);
+                }
+                if (newState == OnScrollListener.SCROLL_STATE_IDLE) {
+                    dispatchOnScroll(true);
+                }
+            }
         }
     }
 
     /**
      * Responsible for fling behavior. Use {@link #start(int)} to initiate a
      * fling. Each frame of the fling is handled in {@link #run()}. A
-     * FlingRunnable will keep re-posting itself until the fling is done.
+     * FlingRunnable will keep re-posting itself to the scroll clock until the
+     * fling is done.
      * 
      */
-    private class FlingRunnable implements Runnable {
+    private class FlingRunnable implements Runnable, ScrollClock.FrameCallback {
         /**
-         * Tracks the decay of a fling scroll
+         * Tracks overflings and springbacks
          */
         private final OverScroller mScroller;
 
         /**
-         * X value reported by mScroller on the previous fling
+         * Tracks the decay of a fling scroll, from the frame times
+         */
+        private final FrameScroller mFrameScroller;
+
+        private final SplineFling mSplineFling;
+
+        /**
+         * Time of the frame being handled
+         */
+        private long mFrameTimeNanos;
+
+        /**
+         * X value reported by mFrameScroller on the previous fling
          */
         private int mLastFlingX;
 
+        /**
+         * The item a snapping fling is aimed at, or INVALID_POSITION
+         */
+        private int mSnapPosition = INVALID_POSITION;
+
+        /**
+         * Whether the snapping fling was aimed using the real position of its
+         * target rather than an estimate
+         */
+        private boolean mSnapExact;
+
         private final Runnable mCheckFlywheel = new Runnable() {
             public void run() {
                 final int activeId = mActivePointerId;
                 final VelocityTracker vt = mVelocityTracker;
-                final OverScroller scroller = mScroller;
                 if (vt == null || activeId == INVALID_POINTER) {
                     return;
                 }
@@ -3555,8 +5681,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 final float xvel = -vt.getXVelocity(activeId);
 
                 if (Math.abs(xvel) >= mMinimumVelocity
-                        && mHideApiProxy.isScrollingInDirection(scroller, xvel,
-                                0)) {
+                        && mFrameScroller.isScrollingInDirection(xvel)) {
                     // Keep the fling alive a little longer
                     postDelayed(this, FLYWHEEL_TIMEOUT);
                 } else {
@@ -3571,15 +5696,49 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
         FlingRunnable() {
             mScroller = new OverScroller(getContext());
+            mSplineFling = new SplineFling(getContext());
+            mFrameScroller = new FrameScroller(mSplineFling);
+        }
+
+        void setFriction(float friction) {
+            mScroller.setFriction(friction);
+            mSplineFling.setFriction(friction);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameTimeNanos = frameTimeNanos;
+            run();
+        }
+
+        void postFrame() {
+            getScrollClock().postFrameCallback(this);
+        }
+
+        void removeFrame() {
+            getScrollClock().removeFrameCallback(this);
+        }
+
+        /**
+         * @return The velocity of the running fling in pixels per second,
+         *         positive toward the end of the list
+         */
+        float getVelocity() {
+            return mFrameScroller.getVelocity();
         }
 
         void start(int initialVelocity) {
+            if (mFlingSnapMode != SNAP_NONE) {
+                startSnap(initialVelocity);
+                return;
+            }
+            mSnapPosition = INVALID_POSITION;
             int initialX = initialVelocity < 0 ? Integer.MAX_VALUE : 0;
             mLastFlingX = initialX;
-            mScroller.fling(initialX, 0, initialVelocity, 0, Integer.MAX_VALUE,
-                    0, Integer.MAX_VALUE, 0);
+            mFrameScroller.fling(getScrollClock().nanoTime(), initialX,
+                    initialVelocity, 0, Integer.MAX_VALUE);
             mTouchMode = TOUCH_MODE_FLING;
-            post(this);
+            postFrame();
 
             if (PROFILE_FLINGING) {
                 if (!mFlingProfilingStarted) {
@@ -3594,11 +5753,75 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             // }
         }
 
+        /**
+         * Starts a fling that comes to rest with an item on the snap line. The
+         * item is the one closest to where a free fling would have stopped,
+         * and the velocity is adjusted to reach it exactly.
+         */
+        void startSnap(int initialVelocity) {
+            if (Math.abs(initialVelocity) <= mMinimumVelocity) {
+                initialVelocity = 0;
+            }
+            final int direction = Integer.signum(initialVelocity);
+            final long freeDistance = direction
+                    * (long) mSplineFling.getDistance(initialVelocity);
+            final int position = findSnapPosition(freeDistance, direction);
+            if (position == INVALID_POSITION) {
+                mSnapPosition = INVALID_POSITION;
+                endFling();
+                return;
+            }
+            startSnapTo(position);
+        }
+
+        /**
+         * Starts a fling that comes to rest with the item at
+         * <code>position</code> on the snap line.
+         */
+        void startSnapTo(int position) {
+            mSnapPosition = position;
+            mSnapExact = position >= mFirstPosition
+                    && position < mFirstPosition + getChildCount();
+            if (!aimSnap()) {
+                endFling();
+                return;
+            }
+            mTouchMode = TOUCH_MODE_FLING;
+            postFrame();
+        }
+
+        /**
+         * Points the scroller at the snap target from the current position.
+         * 
+         * @return false if the list already rests there
+         */
+        private boolean aimSnap() {
+            final long offset = getSnapOffset(mSnapPosition);
+            final long distance = clampScrollDistance(offset);
+            if (distance != offset) {
+                // The end of the list stops the fling first
+                mSnapPosition = INVALID_POSITION;
+            }
+            if (distance == 0) {
+                return false;
+            }
+            final int span = (int) Math.min(Math.abs(distance),
+                    Integer.MAX_VALUE);
+            // Aim one pixel past the target so that the fling is cut off
+            // exactly there instead of decaying just short of it
+            final int velocity = mSplineFling.getVelocity(span + 1);
+            final int initialX = distance < 0 ? span : 0;
+            mLastFlingX = initialX;
+            mFrameScroller.fling(getScrollClock().nanoTime(), initialX,
+                    distance < 0 ? -velocity : velocity, 0, span);
+            return true;
+        }
+
         void startSpringback() {
             if (mScroller.springBack(getScrollX(), 0, 0, 0, 0, 0)) {
                 mTouchMode = TOUCH_MODE_OVERFLING;
                 invalidate();
-                post(this);
+                postFrame();
             } else {
                 mTouchMode = TOUCH_MODE_REST;
                 reportScrollStateChange(OnScrollListener.SCROLL_STATE_IDLE);
@@ -3610,12 +5833,15 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                     Integer.MIN_VALUE, Integer.MAX_VALUE, 0, getWidth(), 0);
             mTouchMode = TOUCH_MODE_OVERFLING;
             invalidate();
-            post(this);
+            postFrame();
         }
 
         void edgeReached(int delta) {
-            mScroller.notifyHorizontalEdgeReached(getScrollX(), 0,
-                    mOverflingDistance);
+            // Hand the remaining velocity over to the overfling scroller
+            mScroller.fling(getScrollX(), 0,
+                    (int) mFrameScroller.getVelocity(), 0, 0, 0, 0, 0,
+                    mOverflingDistance, 0);
+            mFrameScroller.abortAnimation();
             final int overscrollMode = getOverScrollMode();
             if (overscrollMode == OVER_SCROLL_ALWAYS
                     || (overscrollMode == OVER_SCROLL_IF_CONTENT_SCROLLS && !contentFits())) {
@@ -3633,26 +5859,29 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 }
             }
             invalidate();
-            post(this);
+            postFrame();
         }
 
         void startScroll(int distance, int duration) {
+            mSnapPosition = INVALID_POSITION;
             int initialX = distance < 0 ? Integer.MAX_VALUE : 0;
             mLastFlingX = initialX;
-            mScroller.startScroll(initialX, 0, distance, 0, duration);
+            mFrameScroller.startScroll(getScrollClock().nanoTime(), initialX,
+                    distance, duration);
             mTouchMode = TOUCH_MODE_FLING;
-            post(this);
+            postFrame();
         }
 
         void endFling() {
             mTouchMode = TOUCH_MODE_REST;
 
-            removeCallbacks(this);
+            removeFrame();
             removeCallbacks(mCheckFlywheel);
 
             reportScrollStateChange(OnScrollListener.SCROLL_STATE_IDLE);
             clearScrollingCache();
             mScroller.abortAnimation();
+            mFrameScroller.abortAnimation();
 
             // if (mFlingStrictSpan != null) {
             // mFlingStrictSpan.finish();
@@ -3671,7 +5900,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 return;
 
             case TOUCH_MODE_SCROLL:
-                if (mScroller.isFinished()) {
+                if (mFrameScroller.isFinished()) {
                     return;
                 }
                 // Fall through
@@ -3685,8 +5914,8 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                     return;
                 }
 
-                final OverScroller scroller = mScroller;
-                boolean more = scroller.computeScrollOffset();
+                final FrameScroller scroller = mFrameScroller;
+                boolean more = scroller.computeScrollOffset(mFrameTimeNanos);
                 final int x = scroller.getCurrX();
 
                 // Flip sign to convert finger direction to list items direction
@@ -3700,7 +5929,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                     // mMotionPosition
                     mMotionPosition = mFirstPosition;
                     final View firstView = getChildAt(0);
-                    mMotionViewOriginalLeft = firstView.getLeft();
+                    mMotionViewOriginalLeft = getChildLeftInViewport(firstView);
 
                     // Don't fling more than 1 screen
                     delta = Math.min(getWidth() - getPaddingRight()
@@ -3712,7 +5941,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                     mMotionPosition = mFirstPosition + offsetToLast;
 
                     final View lastView = getChildAt(offsetToLast);
-                    mMotionViewOriginalLeft = lastView.getLeft();
+                    mMotionViewOriginalLeft = getChildLeftInViewport(lastView);
 
                     // Don't fling more than 1 screen
                     delta = Math.max(-(getWidth() - getPaddingRight()
@@ -3723,7 +5952,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 View motionView = getChildAt(mMotionPosition - mFirstPosition);
                 int oldLeft = 0;
                 if (motionView != null) {
-                    oldLeft = motionView.getLeft();
+                    oldLeft = getChildLeftInViewport(motionView);
                 }
 
                 // Don't stop just because delta is zero (it could have been
@@ -3733,7 +5962,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 if (atEnd) {
                     if (motionView != null) {
                         // Tweak the scroll for how far we overshot
-                        int overshoot = -(delta - (motionView.getLeft() - oldLeft));
+                        int overshoot = -(delta - (getChildLeftInViewport(motionView) - oldLeft));
                         overScrollBy(overshoot, 0, getScrollX(), 0, 0, 0,
                                 mOverflingDistance, 0, false);
                     }
@@ -3744,9 +5973,23 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 }
 
                 if (more && !atEnd) {
-                    invalidate();
+                    // trackMotionScroll has invalidated the list
                     mLastFlingX = x;
-                    post(this);
+                    if (mSnapPosition != INVALID_POSITION && !mSnapExact
+                            && mSnapPosition >= mFirstPosition
+                            && mSnapPosition < mFirstPosition + getChildCount()) {
+                        // The target is laid out, re-aim at its real position
+                        mSnapExact = true;
+                        if (!aimSnap()) {
+                            endFling();
+                            break;
+                        }
+                    }
+                    if (mHasPlaceholders) {
+                        upgradePlaceholders();
+                    }
+                    updateScrollingLayers(Math.abs(getVelocity()));
+                    postFrame();
                 } else {
                     endFling();
 
@@ -3789,7 +6032,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                         }
                     } else {
                         invalidate();
-                        post(this);
+                        postFrame();
                     }
                 } else {
                     endFling();
@@ -3800,9 +6043,14 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         }
     }
 
-    class PositionScroller implements Runnable {
+    class PositionScroller implements Runnable, ScrollClock.FrameCallback {
         private static final int SCROLL_DURATION = 200;
 
+        /**
+         * The longest an exact scroll takes, however far it goes
+         */
+        private static final int MAX_SCROLL_DURATION = 4 * SCROLL_DURATION;
+
         private static final int MOVE_RIGHT_POS = 1;
         private static final int MOVE_LEFT_POS = 2;
         private static final int MOVE_RIGHT_BOUND = 3;
@@ -3818,6 +6066,12 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
         private int mOffsetFromLeft;
 
+        /**
+         * Set while the scroller settles after a jump, so that it does not
+         * jump again.
+         */
+        private boolean mSettling;
+
         PositionScroller() {
             mExtraScroll = ViewConfiguration.get(getContext())
                     .getScaledFadingEdgeLength();
@@ -3843,8 +6097,9 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 return;
             }
 
-            final int firstPos = mFirstPosition;
-            final int lastPos = firstPos + childCount - 1;
+            // Positions in the offscreen margin still need scrolling to
+            final int firstPos = getFirstOnScreenPositionInt();
+            final int lastPos = getLastOnScreenPositionInt();
 
             int viewTravelCount;
             int clampedPosition = Math.max(0,
@@ -3861,6 +6116,36 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 return;
             }
 
+            if (shouldJump(viewTravelCount)) {
+                jumpNear(clampedPosition, mMode == MOVE_RIGHT_POS,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                start(position);
+                            }
+                        });
+                return;
+            }
+
+            if (mMode == MOVE_RIGHT_POS) {
+                final int extraScroll = clampedPosition < mItemCount - 1 ? Math
+                        .max(mListPadding.right, mExtraScroll)
+                        : mListPadding.right;
+                final long right = getExactRight(clampedPosition);
+                if (right != Long.MIN_VALUE) {
+                    smoothScrollExactly(right - (getWidth() - extraScroll));
+                    return;
+                }
+            } else {
+                final int extraScroll = clampedPosition > 0 ? Math.max(
+                        mExtraScroll, mListPadding.left) : mListPadding.left;
+                final long left = getExactLeft(clampedPosition);
+                if (left != Long.MIN_VALUE) {
+                    smoothScrollExactly(left - extraScroll);
+                    return;
+                }
+            }
+
             if (viewTravelCount > 0) {
                 mScrollDuration = SCROLL_DURATION / viewTravelCount;
             } else {
@@ -3870,7 +6155,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             mBoundPos = INVALID_POSITION;
             mLastSeenPos = INVALID_POSITION;
 
-            postOnAnimation(this);
+            postFrame();
         }
 
         void start(final int position, final int boundPosition) {
@@ -3898,8 +6183,9 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 return;
             }
 
-            final int firstPos = mFirstPosition;
-            final int lastPos = firstPos + childCount - 1;
+            // Positions in the offscreen margin still need scrolling to
+            final int firstPos = getFirstOnScreenPositionInt();
+            final int lastPos = getLastOnScreenPositionInt();
 
             int viewTravelCount;
             int clampedPosition = Math.max(0,
@@ -3952,14 +6238,15 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             mBoundPos = boundPosition;
             mLastSeenPos = INVALID_POSITION;
 
-            postOnAnimation(this);
+            postFrame();
         }
 
         void startWithOffset(int position, int offset) {
             startWithOffset(position, offset, SCROLL_DURATION);
         }
 
-        void startWithOffset(final int position, int offset, final int duration) {
+        void startWithOffset(final int position, final int offset,
+                final int duration) {
             stop();
 
             if (mDataChanged) {
@@ -3980,10 +6267,10 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 return;
             }
 
-            offset += getPaddingLeft();
+            final int paddedOffset = offset + getPaddingLeft();
 
             mTargetPos = Math.max(0, Math.min(getCount() - 1, position));
-            mOffsetFromLeft = offset;
+            mOffsetFromLeft = paddedOffset;
             mBoundPos = INVALID_POSITION;
             mLastSeenPos = INVALID_POSITION;
             mMode = MOVE_OFFSET;
@@ -3998,9 +6285,25 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 viewTravelCount = mTargetPos - lastPos;
             } else {
                 // On-screen, just scroll.
-                final int targetLeft = getChildAt(mTargetPos - firstPos)
-                        .getLeft();
-                smoothScrollBy(targetLeft - offset, duration, true);
+                final int targetLeft = getChildLeftInViewport(getChildAt(mTargetPos
+                        - firstPos));
+                smoothScrollBy(targetLeft - paddedOffset, duration, true);
+                return;
+            }
+
+            if (shouldJump(viewTravelCount)) {
+                jumpNear(mTargetPos, mTargetPos > lastPos, new Runnable() {
+                    @Override
+                    public void run() {
+                        startWithOffset(position, offset, duration);
+                    }
+                });
+                return;
+            }
+
+            final long targetLeft = getExactLeft(mTargetPos);
+            if (targetLeft != Long.MIN_VALUE) {
+                smoothScrollExactly(targetLeft - paddedOffset);
                 return;
             }
 
@@ -4011,7 +6314,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                     : (int) (duration / screenTravelCount);
             mLastSeenPos = INVALID_POSITION;
 
-            postOnAnimation(this);
+            postFrame();
         }
 
         /**
@@ -4069,7 +6372,107 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         }
 
         void stop() {
-            removeCallbacks(this);
+            getScrollClock().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            run();
+        }
+
+        private void postFrame() {
+            getScrollClock().postFrameCallback(this);
+        }
+
+        private boolean shouldJump(int viewTravelCount) {
+            return !mSettling && mSmoothScrollJumpThreshold > 0
+                    && viewTravelCount > mSmoothScrollJumpThreshold;
+        }
+
+        /**
+         * Lays the list out about one screen away from <code>targetPos</code>
+         * and runs <code>settle</code> once that layout is done. The
+         * selection is left alone.
+         */
+        private void jumpNear(int targetPos, boolean fromLeft,
+                final Runnable settle) {
+            final int screen = getChildCount();
+            final int jumpPos = fromLeft ? Math.max(0, targetPos - screen)
+                    : Math.min(mItemCount - 1, targetPos + screen);
+            mPositionScrollAfterLayout = new Runnable() {
+                @Override
+                public void run() {
+                    mSettling = true;
+                    try {
+                        settle.run();
+                    } finally {
+                        mSettling = false;
+                    }
+                }
+            };
+            mSyncPosition = jumpPos;
+            mSpecificLeft = mListPadding.left;
+            mLayoutMode = LAYOUT_SYNC;
+            requestLayout();
+        }
+
+        /**
+         * Returns the left edge that <code>position</code> would have if the
+         * list were laid out up to it, computed from the item width index.
+         * 
+         * @return The left edge, or {@link Long#MIN_VALUE} if the width of an
+         *         item in between is not known.
+         */
+        private long getExactLeft(int position) {
+            final ItemWidthIndex index = getItemWidthIndex();
+            final int childCount = getChildCount();
+            if (index == null || childCount == 0) {
+                return Long.MIN_VALUE;
+            }
+            final int firstPos = mFirstPosition;
+            final int lastPos = firstPos + childCount - 1;
+            final int spacing = getItemSpacing();
+            if (position < firstPos) {
+                if (!index.isExact(position, firstPos)) {
+                    return Long.MIN_VALUE;
+                }
+                return getChildLeftInViewport(getChildAt(0))
+                        - index.getWidth(position,
+                        firstPos) - (long) spacing * (firstPos - position);
+            } else if (position > lastPos) {
+                if (!index.isExact(lastPos + 1, position)) {
+                    return Long.MIN_VALUE;
+                }
+                return getChildRightInViewport(getChildAt(childCount - 1))
+                        + index.getWidth(lastPos + 1, position)
+                        + (long) spacing * (position - lastPos);
+            }
+            return getChildLeftInViewport(getChildAt(position - firstPos));
+        }
+
+        /**
+         * Like {@link #getExactLeft(int)}, for the right edge.
+         */
+        private long getExactRight(int position) {
+            final ItemWidthIndex index = getItemWidthIndex();
+            if (index == null) {
+                return Long.MIN_VALUE;
+            }
+            final long left = getExactLeft(position);
+            final int width = index.get(position);
+            if (left == Long.MIN_VALUE || width < 0) {
+                return Long.MIN_VALUE;
+            }
+            return left + width;
+        }
+
+        private void smoothScrollExactly(long distance) {
+            final int listWidth = Math.max(1, getWidth());
+            final float screens = Math.abs(distance) / (float) listWidth;
+            final int duration = (int) Math.min(MAX_SCROLL_DURATION,
+                    SCROLL_DURATION * Math.max(1f, screens));
+            smoothScrollBy((int) Math.max(Integer.MIN_VALUE + 1,
+                    Math.min(Integer.MAX_VALUE, distance)), duration, true);
         }
 
         public void run() {
@@ -4078,8 +6481,8 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
             switch (mMode) {
             case MOVE_RIGHT_POS: {
-                final int lastViewIndex = getChildCount() - 1;
-                final int lastPos = firstPos + lastViewIndex;
+                final int lastPos = getLastOnScreenPositionInt();
+                final int lastViewIndex = lastPos - firstPos;
 
                 if (lastViewIndex < 0) {
                     return;
@@ -4087,13 +6490,13 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
                 if (lastPos == mLastSeenPos) {
                     // No new views, let things keep going.
-                    postOnAnimation(this);
+                    postFrame();
                     return;
                 }
 
                 final View lastView = getChildAt(lastViewIndex);
                 final int lastViewWidth = lastView.getWidth();
-                final int lastViewLeft = lastView.getLeft();
+                final int lastViewLeft = getChildLeftInViewport(lastView);
                 final int lastViewPixelsShowing = listWidth - lastViewLeft;
                 final int extraScroll = lastPos < mItemCount - 1 ? Math.max(
                         mListPadding.right, mExtraScroll) : mListPadding.right;
@@ -4104,7 +6507,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
                 mLastSeenPos = lastPos;
                 if (lastPos < mTargetPos) {
-                    postOnAnimation(this);
+                    postFrame();
                 }
                 break;
             }
@@ -4121,13 +6524,13 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
                 if (nextPos == mLastSeenPos) {
                     // No new views, let things keep going.
-                    postOnAnimation(this);
+                    postFrame();
                     return;
                 }
 
                 final View nextView = getChildAt(nextViewIndex);
                 final int nextViewWidth = nextView.getWidth();
-                final int nextViewLeft = nextView.getLeft();
+                final int nextViewLeft = getChildLeftInViewport(nextView);
                 final int extraScroll = Math.max(mListPadding.right,
                         mExtraScroll);
                 if (nextPos < mBoundPos) {
@@ -4137,7 +6540,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
                     mLastSeenPos = nextPos;
 
-                    postOnAnimation(this);
+                    postFrame();
                 } else {
                     if (nextViewLeft > extraScroll) {
                         smoothScrollBy(nextViewLeft - extraScroll,
@@ -4148,27 +6551,28 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             }
 
             case MOVE_LEFT_POS: {
-                if (firstPos == mLastSeenPos) {
+                final int firstOnScreen = getFirstOnScreenPositionInt();
+                if (firstOnScreen == mLastSeenPos) {
                     // No new views, let things keep going.
-                    postOnAnimation(this);
+                    postFrame();
                     return;
                 }
 
-                final View firstView = getChildAt(0);
+                final View firstView = getChildAt(firstOnScreen - firstPos);
                 if (firstView == null) {
                     return;
                 }
-                final int firstViewLeft = firstView.getLeft();
-                final int extraScroll = firstPos > 0 ? Math.max(mExtraScroll,
-                        mListPadding.left) : mListPadding.left;
+                final int firstViewLeft = getChildLeftInViewport(firstView);
+                final int extraScroll = firstOnScreen > 0 ? Math.max(
+                        mExtraScroll, mListPadding.left) : mListPadding.left;
 
                 smoothScrollBy(firstViewLeft - extraScroll, mScrollDuration,
                         true);
 
-                mLastSeenPos = firstPos;
+                mLastSeenPos = firstOnScreen;
 
-                if (firstPos > mTargetPos) {
-                    postOnAnimation(this);
+                if (firstOnScreen > mTargetPos) {
+                    postFrame();
                 }
                 break;
             }
@@ -4182,13 +6586,13 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
                 if (lastPos == mLastSeenPos) {
                     // No new views, let things keep going.
-                    postOnAnimation(this);
+                    postFrame();
                     return;
                 }
 
                 final View lastView = getChildAt(lastViewIndex);
                 final int lastViewWidth = lastView.getWidth();
-                final int lastViewLeft = lastView.getLeft();
+                final int lastViewLeft = getChildLeftInViewport(lastView);
                 final int lastViewPixelsShowing = listWidth - lastViewLeft;
                 final int extraScroll = Math.max(mListPadding.left,
                         mExtraScroll);
@@ -4196,7 +6600,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 if (lastPos > mBoundPos) {
                     smoothScrollBy(-(lastViewPixelsShowing - extraScroll),
                             mScrollDuration, true);
-                    postOnAnimation(this);
+                    postFrame();
                 } else {
                     final int right = listWidth - extraScroll;
                     final int lastViewRight = lastViewLeft + lastViewWidth;
@@ -4211,7 +6615,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             case MOVE_OFFSET: {
                 if (mLastSeenPos == firstPos) {
                     // No new views, let things keep going.
-                    postOnAnimation(this);
+                    postFrame();
                     return;
                 }
 
@@ -4238,16 +6642,16 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                     final int distance = (int) (-getWidth() * modifier);
                     final int duration = (int) (mScrollDuration * modifier);
                     smoothScrollBy(distance, duration, true);
-                    postOnAnimation(this);
+                    postFrame();
                 } else if (position > lastPos) {
                     final int distance = (int) (getWidth() * modifier);
                     final int duration = (int) (mScrollDuration * modifier);
                     smoothScrollBy(distance, duration, true);
-                    postOnAnimation(this);
+                    postFrame();
                 } else {
                     // On-screen, just scroll.
-                    final int targetLeft = getChildAt(position - firstPos)
-                            .getLeft();
+                    final int targetLeft = getChildLeftInViewport(getChildAt(position
+                            - firstPos));
                     final int distance = targetLeft - mOffsetFromLeft;
                     final int duration = (int) (mScrollDuration * ((float) Math
                             .abs(distance) / getWidth()));
@@ -4273,7 +6677,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         if (mFlingRunnable == null) {
             mFlingRunnable = new FlingRunnable();
         }
-        mFlingRunnable.mScroller.setFriction(friction);
+        mFlingRunnable.setFriction(friction);
     }
 
     /**
@@ -4287,6 +6691,37 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         mVelocityScale = scale;
     }
 
+    /**
+     * Sets the clock that drives flings and smooth scrolls. Every frame of a
+     * scroll animation is computed from the frame time the clock delivers, so
+     * a test can install a clock of its own to step animations to exact
+     * times. Any running animation is stopped.
+     * 
+     * @param clock
+     *            The clock, or null for the default vsync clock
+     */
+    public void setScrollClock(ScrollClock clock) {
+        if (mFlingRunnable != null
+                && (mTouchMode == TOUCH_MODE_FLING || mTouchMode == TOUCH_MODE_OVERFLING)) {
+            mFlingRunnable.endFling();
+        }
+        if (mPositionScroller != null) {
+            mPositionScroller.stop();
+        }
+        mScrollClock = clock;
+    }
+
+    /**
+     * @return The clock that drives flings and smooth scrolls
+     * @see #setScrollClock(ScrollClock)
+     */
+    public ScrollClock getScrollClock() {
+        if (mScrollClock == null) {
+            mScrollClock = ScrollClock.getDefault();
+        }
+        return mScrollClock;
+    }
+
     /**
      * Smoothly scroll to the specified adapter position. The view will scroll
      * such that the indicated position is displayed.
@@ -4390,9 +6825,9 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         if (distance == 0
                 || mItemCount == 0
                 || childCount == 0
-                || (firstPos == 0 && getChildAt(0).getLeft() == leftLimit && distance < 0)
+                || (firstPos == 0 && getChildLeftInViewport(getChildAt(0)) == leftLimit && distance < 0)
                 || (lastPos == mItemCount - 1
-                        && getChildAt(childCount - 1).getRight() == rightLimit && distance > 0)) {
+                        && getChildRightInViewport(getChildAt(childCount - 1)) == rightLimit && distance > 0)) {
             mFlingRunnable.endFling();
             if (mPositionScroller != null) {
                 mPositionScroller.stop();
@@ -4415,9 +6850,9 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         }
 
         if (index > -1) {
-            View child = getChildAt(index - getFirstVisiblePosition());
+            View child = getChildAt(index - mFirstPosition);
             if (child != null) {
-                Rect visibleRect = new Rect();
+                final Rect visibleRect = mVisibleRect;
                 if (child.getGlobalVisibleRect(visibleRect)) {
                     // the child is partially visible
                     int childRectArea = child.getWidth() * child.getHeight();
@@ -4442,16 +6877,138 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         }
     }
 
+    /**
+     * @return The scrolling cache mode that applies to this list, with
+     *         {@link #SCROLL_CACHE_AUTO} resolved
+     */
+    private int resolveScrollingCacheMode() {
+        if (mScrollingCacheMode == SCROLL_CACHE_AUTO) {
+            return isHardwareAccelerated() ? SCROLL_CACHE_HARDWARE_LAYER
+                    : SCROLL_CACHE_SOFTWARE;
+        }
+        return mScrollingCacheMode;
+    }
+
+    private int getScrollingCacheMemoryLimit() {
+        if (mScrollingCacheMemoryLimit >= 0) {
+            return mScrollingCacheMemoryLimit;
+        }
+        return getWidth() * getHeight() * 4 * 2;
+    }
+
     private void createScrollingCache() {
         if (mScrollingCacheEnabled && !mCachingStarted
-                && !isHardwareAccelerated()) {
+                && !isHardwareAccelerated()
+                && resolveScrollingCacheMode() == SCROLL_CACHE_SOFTWARE) {
+            final int childCount = getChildCount();
+            long bytes = 0;
+            for (int i = 0; i < childCount; i++) {
+                final View child = getChildAt(i);
+                bytes += (long) child.getWidth() * child.getHeight() * 4;
+            }
+            if (bytes > getScrollingCacheMemoryLimit()) {
+                // Too big to cache, draw normally
+                return;
+            }
             setChildrenDrawnWithCacheEnabled(true);
             setChildrenDrawingCacheEnabled(true);
             mCachingStarted = mCachingActive = true;
         }
     }
 
+    /**
+     * Gives the children hardware layers while a fling is fast, and takes
+     * them away once it slows down.
+     * 
+     * @param velocity
+     *            The speed of the fling in pixels per second
+     */
+    void updateScrollingLayers(float velocity) {
+        if (!mScrollingCacheEnabled
+                || resolveScrollingCacheMode() != SCROLL_CACHE_HARDWARE_LAYER
+                || !isHardwareAccelerated()) {
+            return;
+        }
+        if (mScrollingLayersActive) {
+            if (velocity < mScrollingLayerDemoteVelocity) {
+                demoteScrollingLayers();
+                return;
+            }
+        } else if (velocity >= mScrollingLayerPromoteVelocity) {
+            mScrollingLayersActive = true;
+            if (mDemoteScrollingLayers != null) {
+                removeCallbacks(mDemoteScrollingLayers);
+            }
+        } else {
+            return;
+        }
+
+        // Children come and go during the fling, so give layers to the new
+        // ones as long as they fit under the memory limit
+        final int childCount = getChildCount();
+        long bytes = 0;
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (lp != null && lp.scrollingLayer) {
+                bytes += (long) child.getWidth() * child.getHeight() * 4;
+            }
+        }
+        final int limit = getScrollingCacheMemoryLimit();
+        for (int i = 0; i < childCount; i++) {
+            final View child = getChildAt(i);
+            final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+            if (lp == null || lp.scrollingLayer
+                    || child.getLayerType() != View.LAYER_TYPE_NONE) {
+                continue;
+            }
+            final long childBytes = (long) child.getWidth()
+                    * child.getHeight() * 4;
+            if (bytes + childBytes > limit) {
+                // Draw it normally
+                continue;
+            }
+            bytes += childBytes;
+            lp.scrollingLayer = true;
+            child.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+        }
+    }
+
+    /**
+     * Removes the hardware layers given by
+     * {@link #updateScrollingLayers(float)}.
+     */
+    void demoteScrollingLayers() {
+        mScrollingLayersActive = false;
+        if (mDemoteScrollingLayers != null) {
+            removeCallbacks(mDemoteScrollingLayers);
+        }
+        final int childCount = getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            demoteScrollingLayer(getChildAt(i));
+        }
+    }
+
+    void demoteScrollingLayer(View child) {
+        final LayoutParams lp = (LayoutParams) child.getLayoutParams();
+        if (lp != null && lp.scrollingLayer) {
+            lp.scrollingLayer = false;
+            child.setLayerType(View.LAYER_TYPE_NONE, null);
+        }
+    }
+
     private void clearScrollingCache() {
+        if (mScrollingLayersActive) {
+            if (mDemoteScrollingLayers == null) {
+                mDemoteScrollingLayers = new Runnable() {
+                    public void run() {
+                        demoteScrollingLayers();
+                    }
+                };
+            }
+            removeCallbacks(mDemoteScrollingLayers);
+            postDelayed(mDemoteScrollingLayers, SCROLL_LAYER_DEMOTE_DELAY);
+        }
         if (!isHardwareAccelerated()) {
             if (mClearScrollingCache == null) {
                 mClearScrollingCache = new Runnable() {
@@ -4491,8 +7048,10 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             return true;
         }
 
-        final int firstLeft = getChildAt(0).getLeft();
-        final int lastRight = getChildAt(childCount - 1).getRight();
+        mItemInfo.clear();
+
+        final int firstLeft = getChildLeftInViewport(getChildAt(0));
+        final int lastRight = getChildRightInViewport(getChildAt(childCount - 1));
 
         final Rect listPadding = mListPadding;
 
@@ -4503,14 +7062,15 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         // there is no effective padding.
         int effectivePaddingLeft = 0;
         int effectivePaddingRight = 0;
-        if ((mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK) {
+        if (getClipToPadding()) {
             effectivePaddingLeft = listPadding.left;
             effectivePaddingRight = listPadding.right;
         }
 
         // FIXME account for grid vertical spacing too?
-        final int spacePrev = effectivePaddingLeft - firstLeft;
-        final int end = getWidth() - effectivePaddingRight;
+        final int margin = getOffscreenMarginPixels();
+        final int spacePrev = effectivePaddingLeft - margin - firstLeft;
+        final int end = getWidth() - effectivePaddingRight + margin;
         final int spaceNext = lastRight - end;
 
         final int width = getWidth() - getPaddingRight() - getPaddingLeft();
@@ -4562,8 +7122,8 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         int count = 0;
 
         if (rightTo) {
-            int left = -incrementalDeltaX;
-            if ((mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK) {
+            int left = -incrementalDeltaX - mViewportOffset - margin;
+            if (getClipToPadding()) {
                 left += listPadding.left;
             }
             for (int i = 0; i < childCount; i++) {
@@ -4579,8 +7139,9 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 }
             }
         } else {
-            int right = getWidth() - incrementalDeltaX;
-            if ((mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK) {
+            int right = getWidth() - incrementalDeltaX - mViewportOffset
+                    + margin;
+            if (getClipToPadding()) {
                 right -= listPadding.right;
             }
             for (int i = childCount - 1; i >= 0; i--) {
@@ -4598,154 +7159,933 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             }
         }
 
-        mMotionViewNewLeft = mMotionViewOriginalLeft + deltaX;
-
-        mBlockLayoutRequests = true;
+        mMotionViewNewLeft = mMotionViewOriginalLeft + deltaX;
+
+        mBlockLayoutRequests = true;
+
+        if (count > 0) {
+            detachViewsFromParent(start, count);
+            mRecycler.removeSkippedScrap();
+            if (mPagingEnabled) {
+                mRecycler.pruneScrapViews();
+            }
+        }
+
+        // invalidate before moving the children to avoid unnecessary invalidate
+        // calls to bubble up from the children all the way to the top
+        if (!awakenScrollBars()) {
+            invalidate();
+        }
+
+        offsetChildrenInViewport(incrementalDeltaX);
+
+        if (rightTo) {
+            mFirstPosition += count;
+        }
+
+        final int absIncrementalDeltaX = Math.abs(incrementalDeltaX);
+        if (spacePrev < absIncrementalDeltaX
+                || spaceNext < absIncrementalDeltaX) {
+            final ScrollJankMonitor jankMonitor = mJankMonitor;
+            final long fillStart = jankMonitor != null ? System.nanoTime() : 0;
+            fillGap(rightTo);
+            if (jankMonitor != null) {
+                jankMonitor.mLayoutNanos += System.nanoTime() - fillStart;
+            }
+        }
+
+        if (!inTouchMode && mSelectedPosition != INVALID_POSITION) {
+            final int childIndex = mSelectedPosition - mFirstPosition;
+            if (childIndex >= 0 && childIndex < getChildCount()) {
+                positionSelector(mSelectedPosition, getChildAt(childIndex));
+            }
+        } else if (mSelectorPosition != INVALID_POSITION) {
+            final int childIndex = mSelectorPosition - mFirstPosition;
+            if (childIndex >= 0 && childIndex < getChildCount()) {
+                positionSelector(INVALID_POSITION, getChildAt(childIndex));
+            }
+        } else {
+            mSelectorRect.setEmpty();
+        }
+
+        mBlockLayoutRequests = false;
+
+        invokeOnItemScrollListener();
+
+        return false;
+    }
+
+    /**
+     * Fills the gap left open by a touch-scroll. During a touch scroll,
+     * children that remain on screen are shifted and the other ones are
+     * discarded. The role of this method is to fill the gap thus created by
+     * performing a partial layout in the empty space.
+     * 
+     * @param right
+     *            true if the scroll is going right, false if it is going left
+     */
+    abstract void fillGap(boolean right);
+
+    void hideSelector() {
+        if (mSelectedPosition != INVALID_POSITION) {
+            invalidateSelector();
+            if (mLayoutMode != LAYOUT_SPECIFIC) {
+                mResurrectToPosition = mSelectedPosition;
+            }
+            if (mNextSelectedPosition >= 0
+                    && mNextSelectedPosition != mSelectedPosition) {
+                mResurrectToPosition = mNextSelectedPosition;
+            }
+            setSelectedPositionInt(INVALID_POSITION);
+            setNextSelectedPositionInt(INVALID_POSITION);
+            mSelectedLeft = 0;
+        }
+    }
+
+    /**
+     * @return A position to select. First we try mSelectedPosition. If that has
+     *         been clobbered by entering touch mode, we then try
+     *         mResurrectToPosition. Values are pinned to the range of items
+     *         available in the adapter
+     */
+    int reconcileSelectedPosition() {
+        int position = mSelectedPosition;
+        if (position < 0) {
+            position = mResurrectToPosition;
+        }
+        position = Math.max(0, position);
+        position = Math.min(position, mItemCount - 1);
+        return position;
+    }
+
+    /**
+     * Find the row closest to x. This row will be used as the motion row when
+     * scrolling
+     * 
+     * @param x
+     *            Where the user touched
+     * @return The position of the first (or only) item in the row containing x
+     */
+    abstract int findMotionCol(int x);
+
+    /**
+     * Find the row closest to x. This row will be used as the motion row when
+     * scrolling.
+     * 
+     * @param x
+     *            Where the user touched
+     * @return The position of the first (or only) item in the row closest to x
+     */
+    int findClosestMotionCol(int x) {
+        final int childCount = getChildCount();
+        if (childCount == 0) {
+            return INVALID_POSITION;
+        }
+
+        final int motionCol = findMotionCol(x);
+        return motionCol != INVALID_POSITION ? motionCol : mFirstPosition
+                + childCount - 1;
+    }
+
+    /**
+     * Causes all the views to be rebuilt and redrawn.
+     */
+    public void invalidateViews() {
+        mDataChanged = true;
+        rememberSyncState();
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * If there is a selection returns false. Otherwise resurrects the selection
+     * and returns true if resurrected.
+     */
+    boolean resurrectSelectionIfNeeded() {
+        if (mSelectedPosition < 0 && resurrectSelection()) {
+            updateSelectorState();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Makes the item at the supplied position selected.
+     * 
+     * @param position
+     *            the position of the new selection
+     */
+    abstract void setSelectionInt(int position);
+
+    /**
+     * Sets the selected item and positions the selection x pixels from the left
+     * edge of the list. (If in touch mode, the item will not be selected but it
+     * will still be positioned appropriately.)
+     * 
+     * @param position
+     *            Index (starting at 0) of the data item to be selected.
+     * @param x
+     *            The distance from the left edge of the list (plus padding)
+     *            that the item will be positioned.
+     */
+    public abstract void setSelectionFromLeft(int position, int x);
+
+    /**
+     * @return The space in pixels between two adjacent items.
+     */
+    int getItemSpacing() {
+        return 0;
+    }
+
+    /**
+     * Enables an index of the widths of every item that has been laid out.
+     * With the index, smooth scrolls to positions that are off screen can
+     * compute their exact distance instead of stepping through the list one
+     * screen at a time. The index costs a few bytes per adapter item.
+     * 
+     * @param enabled
+     *            true to maintain the index
+     * @see #setSmoothScrollJumpThreshold(int)
+     */
+    public void setItemWidthIndexEnabled(boolean enabled) {
+        if (!enabled) {
+            mItemWidthIndex = null;
+        } else if (mItemWidthIndex == null) {
+            mItemWidthIndex = new ItemWidthIndex();
+        }
+    }
+
+    /**
+     * @return true if the item width index is enabled
+     * @see #setItemWidthIndexEnabled(boolean)
+     */
+    public boolean isItemWidthIndexEnabled() {
+        return mItemWidthIndex != null;
+    }
+
+    /**
+     * Smooth scrolls to a position that is more than <code>threshold</code>
+     * positions outside of the visible range first jump close to the target
+     * with {@link #setSelectionFromLeft(int, int)} and then animate the
+     * remaining distance, so that the work done does not grow with the
+     * distance travelled.
+     * 
+     * @param threshold
+     *            The number of positions, or 0 to always scroll through every
+     *            item (the default)
+     */
+    public void setSmoothScrollJumpThreshold(int threshold) {
+        mSmoothScrollJumpThreshold = Math.max(0, threshold);
+    }
+
+    /**
+     * @return The smooth scroll jump threshold
+     * @see #setSmoothScrollJumpThreshold(int)
+     */
+    public int getSmoothScrollJumpThreshold() {
+        return mSmoothScrollJumpThreshold;
+    }
+
+    /**
+     * Records the width of the item at <code>position</code> in the item width
+     * index, if enabled.
+     */
+    void recordItemWidth(int position, int width) {
+        final ItemWidthIndex index = getItemWidthIndex();
+        if (index != null) {
+            index.set(position, width);
+        }
+    }
+
+    /**
+     * @return The item width index for the current data set, or null if
+     *         disabled.
+     */
+    ItemWidthIndex getItemWidthIndex() {
+        final ItemWidthIndex index = mItemWidthIndex;
+        if (index != null && !index.isCurrent(mDataSetGeneration, mItemCount)) {
+            index.reset(mDataSetGeneration, mItemCount);
+        }
+        return index;
+    }
+
+    /**
+     * Makes flings come to rest aligned to an item. The item and the exact
+     * resting point are picked from the velocity when the fling starts, and
+     * the fling is aimed straight at it, so no correcting scroll is needed
+     * once it settles. Slow releases settle on the nearest item.
+     * 
+     * @param mode
+     *            One of {@link #SNAP_NONE} (the default), {@link #SNAP_START}
+     *            or {@link #SNAP_CENTER}
+     */
+    public void setFlingSnapMode(int mode) {
+        if (mode < SNAP_NONE || mode > SNAP_CENTER) {
+            throw new IllegalArgumentException("Unknown snap mode: " + mode);
+        }
+        mFlingSnapMode = mode;
+    }
+
+    /**
+     * @return The current fling snap mode
+     * @see #setFlingSnapMode(int)
+     */
+    public int getFlingSnapMode() {
+        return mFlingSnapMode;
+    }
+
+    /**
+     * Estimates the width of the item at <code>position</code>. Visible items
+     * use their child, others the item width index or the average width of
+     * the visible children.
+     */
+    int estimateItemWidth(int position) {
+        final int index = position - mFirstPosition;
+        if (index >= 0 && index < getChildCount()) {
+            return getChildAt(index).getWidth();
+        }
+        final ItemWidthIndex widths = getItemWidthIndex();
+        if (widths != null) {
+            final int width = widths.get(position);
+            if (width >= 0) {
+                return width;
+            }
+            final int average = widths.getAverageWidth();
+            if (average >= 0) {
+                return average;
+            }
+        }
+        return getAverageChildWidth();
+    }
+
+    /**
+     * Estimates where the left edge of the item at <code>position</code> is,
+     * in the coordinates of this view, by measuring from the nearest visible
+     * child. Must only be called with children.
+     */
+    long estimateItemLeft(int position) {
+        final int childCount = getChildCount();
+        final int firstPos = mFirstPosition;
+        final int lastPos = firstPos + childCount - 1;
+        final int spacing = getItemSpacing();
+        if (position < firstPos) {
+            return getChildLeftInViewport(getChildAt(0))
+                    - estimateWidth(position, firstPos)
+                    - (long) spacing * (firstPos - position);
+        } else if (position > lastPos) {
+            return getChildRightInViewport(getChildAt(childCount - 1))
+                    + estimateWidth(lastPos + 1, position)
+                    + (long) spacing * (position - lastPos);
+        }
+        return getChildLeftInViewport(getChildAt(position - firstPos));
+    }
+
+    private long estimateWidth(int from, int to) {
+        final ItemWidthIndex widths = getItemWidthIndex();
+        if (widths != null) {
+            final long width = widths.getWidth(from, to);
+            if (width >= 0) {
+                return width;
+            }
+        }
+        return (long) getAverageChildWidth() * (to - from);
+    }
+
+    private int getAverageChildWidth() {
+        final int childCount = getChildCount();
+        if (childCount == 0) {
+            return 0;
+        }
+        final int spacing = getItemSpacing();
+        return (getChildRightInViewport(getChildAt(childCount - 1))
+                - getChildLeftInViewport(getChildAt(0)) - spacing
+                * (childCount - 1))
+                / childCount;
+    }
+
+    /**
+     * @return How far the list must scroll for the item at
+     *         <code>position</code> to sit on the snap line. Positive values
+     *         scroll toward the end of the list.
+     */
+    long getSnapOffset(int position) {
+        final long left = estimateItemLeft(position);
+        if (mFlingSnapMode == SNAP_CENTER && !mPagingEnabled) {
+            final int center = (mListPadding.left + getWidth() - mListPadding.right) / 2;
+            return left + estimateItemWidth(position) / 2 - center;
+        }
+        return left - mListPadding.left;
+    }
+
+    /**
+     * Finds the item whose snap point is closest to where a scroll of
+     * <code>distance</code> would come to rest.
+     * 
+     * @param distance
+     *            The free scroll distance, positive toward the end
+     * @param direction
+     *            The sign the scroll to the item must have, or 0 for either
+     * @return The position, or {@link #INVALID_POSITION} if no item lies in
+     *         that direction
+     */
+    int findSnapPosition(long distance, int direction) {
+        final int itemCount = mItemCount;
+        if (itemCount == 0 || getChildCount() == 0) {
+            return INVALID_POSITION;
+        }
+
+        // Snap offsets grow with the position
+        int low = 0;
+        int high = itemCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getSnapOffset(mid) < distance) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        int best = INVALID_POSITION;
+        long bestError = Long.MAX_VALUE;
+        for (int position = low - 1; position <= low; position++) {
+            if (position < 0 || position >= itemCount) {
+                continue;
+            }
+            final long offset = getSnapOffset(position);
+            if ((direction > 0 && offset <= 0) || (direction < 0 && offset >= 0)) {
+                continue;
+            }
+            final long error = Math.abs(offset - distance);
+            if (error < bestError) {
+                best = position;
+                bestError = error;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Limits a scroll distance to what can be scrolled before either end of
+     * the list reaches its edge.
+     */
+    long clampScrollDistance(long distance) {
+        if (distance > 0) {
+            final int last = mItemCount - 1;
+            final long maxForward = estimateItemLeft(last)
+                    + estimateItemWidth(last)
+                    - (getWidth() - mListPadding.right);
+            return Math.max(0, Math.min(distance, maxForward));
+        } else {
+            final long maxBack = mListPadding.left - estimateItemLeft(0);
+            return Math.min(0, Math.max(distance, -maxBack));
+        }
+    }
+
+    /**
+     * @return The velocity of the current fling in pixels per second,
+     *         positive toward the end of the list, or 0 if the list is not
+     *         flinging
+     */
+    public float getFlingVelocity() {
+        if (mTouchMode != TOUCH_MODE_FLING || mFlingRunnable == null) {
+            return 0;
+        }
+        return mFlingRunnable.getVelocity();
+    }
+
+    /**
+     * Sets the fling velocity above which a {@link PlaceholderAdapter} is
+     * asked for placeholder views instead of full ones.
+     * 
+     * @param velocity
+     *            The velocity in pixels per second. Defaults to a quarter of
+     *            the system maximum fling velocity.
+     */
+    public void setPlaceholderVelocity(int velocity) {
+        if (velocity < 0) {
+            throw new IllegalArgumentException("velocity must not be negative: "
+                    + velocity);
+        }
+        mPlaceholderVelocity = velocity;
+    }
+
+    /**
+     * @return The placeholder velocity
+     * @see #setPlaceholderVelocity(int)
+     */
+    public int getPlaceholderVelocity() {
+        return mPlaceholderVelocity;
+    }
+
+    /**
+     * Sets how many placeholders are replaced by full views per frame once
+     * the list slows down, so that the full binds are spread over several
+     * frames.
+     * 
+     * @param count
+     *            The number of full binds per frame, at least 1. Defaults to
+     *            2.
+     */
+    public void setPlaceholderUpgradesPerFrame(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be at least 1: "
+                    + count);
+        }
+        mPlaceholderUpgradesPerFrame = count;
+    }
+
+    /**
+     * @return true if views obtained now should be placeholders
+     */
+    boolean isBindingPlaceholders() {
+        return mTouchMode == TOUCH_MODE_FLING && mFlingRunnable != null
+                && Math.abs(mFlingRunnable.getVelocity()) >= mPlaceholderVelocity;
+    }
+
+    /**
+     * Starts replacing the placeholders on screen with full views, unless the
+     * list is still too fast.
+     */
+    void upgradePlaceholders() {
+        if (isBindingPlaceholders()) {
+            return;
+        }
+        if (mPlaceholderUpgrader == null) {
+            mPlaceholderUpgrader = new PlaceholderUpgrader();
+        }
+        mPlaceholderUpgrader.post();
+    }
+
+    /**
+     * Binds the item of a placeholder child in full. If the adapter returns a
+     * new view instead of rebinding the placeholder, the new view takes the
+     * place of the placeholder until the next layout pass sizes it.
+     */
+    private void upgradePlaceholder(int index, View child, LayoutParams lp) {
+        final int position = mFirstPosition + index;
+        lp.placeholder = false;
+        final View full = mAdapter.getView(position, child, this);
+        if (full == child) {
+            return;
+        }
+
+        final ViewGroup.LayoutParams vlp = full.getLayoutParams();
+        LayoutParams fullLp;
+        if (vlp == null) {
+            fullLp = (LayoutParams) generateDefaultLayoutParams();
+        } else if (!checkLayoutParams(vlp)) {
+            fullLp = (LayoutParams) generateLayoutParams(vlp);
+        } else {
+            fullLp = (LayoutParams) vlp;
+        }
+        fullLp.viewType = lp.viewType;
+        fullLp.itemId = lp.itemId;
+        fullLp.placeholder = false;
+        if (mCacheColorHint != 0) {
+            full.setDrawingCacheBackgroundColor(mCacheColorHint);
+        }
+
+        detachViewFromParent(index);
+        mRecycler.addScrapView(child, position);
+        addViewInLayout(full, index, fullLp, true);
+        full.measure(MeasureSpec.makeMeasureSpec(child.getWidth(),
+                MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(
+                child.getHeight(), MeasureSpec.EXACTLY));
+        full.layout(child.getLeft(), child.getTop(), child.getRight(),
+                child.getBottom());
+        requestLayout();
+    }
+
+    /**
+     * Replaces placeholder children with full views a few at a time, one
+     * batch per frame, for as long as the list is not flinging fast.
+     */
+    private final class PlaceholderUpgrader implements
+            ScrollClock.FrameCallback {
+        private boolean mPosted;
+
+        void post() {
+            if (!mPosted) {
+                mPosted = true;
+                getScrollClock().postFrameCallback(this);
+            }
+        }
+
+        void cancel() {
+            mPosted = false;
+            getScrollClock().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mPosted = false;
+            if (!mHasPlaceholders || isBindingPlaceholders()) {
+                // A fast fling frame posts again once it slows down
+                return;
+            }
+            if (mDataChanged || mAdapter == null) {
+                // The next layout binds every child in full
+                mHasPlaceholders = false;
+                return;
+            }
+
+            final int childCount = getChildCount();
+            int upgraded = 0;
+            boolean remaining = false;
+            for (int i = 0; i < childCount; i++) {
+                final View child = getChildAt(i);
+                final ViewGroup.LayoutParams vlp = child.getLayoutParams();
+                if (!(vlp instanceof LayoutParams)
+                        || !((LayoutParams) vlp).placeholder) {
+                    continue;
+                }
+                if (upgraded == mPlaceholderUpgradesPerFrame) {
+                    remaining = true;
+                    break;
+                }
+                upgradePlaceholder(i, child, (LayoutParams) vlp);
+                upgraded++;
+            }
+
+            if (upgraded > 0) {
+                invalidate();
+            }
+            if (remaining) {
+                post();
+            } else {
+                mHasPlaceholders = false;
+            }
+        }
+    }
+
+    /**
+     * Keeps the columns within <code>pixels</code> beyond each edge of the
+     * list attached and laid out, so that scrolling back and forth does not
+     * bind the same items again and again. The columns in the margin are not
+     * drawn. While paging, the offscreen page limit applies instead.
+     * 
+     * @param pixels
+     *            The width of the margin on each side. Defaults to 0.
+     * @see #setOffscreenMarginItems(int)
+     * @see #setOffscreenPageLimit(int)
+     */
+    public void setOffscreenMargin(int pixels) {
+        if (pixels < 0) {
+            throw new IllegalArgumentException("pixels must not be negative: "
+                    + pixels);
+        }
+        mOffscreenMargin = pixels;
+        mOffscreenMarginInItems = false;
+        if (!mPagingEnabled) {
+            mOffscreenMarginPixels = pixels;
+        }
+        requestLayout();
+    }
 
-        if (count > 0) {
-            detachViewsFromParent(start, count);
-            mRecycler.removeSkippedScrap();
+    /**
+     * Like {@link #setOffscreenMargin(int)}, with the margin given as a number
+     * of items of the average width of the children.
+     * 
+     * @param items
+     *            The number of items on each side. Defaults to 0.
+     */
+    public void setOffscreenMarginItems(int items) {
+        if (items < 0) {
+            throw new IllegalArgumentException("items must not be negative: "
+                    + items);
         }
+        mOffscreenMargin = items;
+        mOffscreenMarginInItems = true;
+        if (items == 0 && !mPagingEnabled) {
+            mOffscreenMarginPixels = 0;
+        }
+        requestLayout();
+    }
 
-        // invalidate before moving the children to avoid unnecessary invalidate
-        // calls to bubble up from the children all the way to the top
-        if (!awakenScrollBars()) {
-            invalidate();
+    /**
+     * @return The width in pixels of the offscreen margin on each side, as of
+     *         the last layout
+     * @see #setOffscreenMargin(int)
+     */
+    int getOffscreenMarginPixels() {
+        return mOffscreenMarginPixels;
+    }
+
+    /**
+     * Takes the offscreen margin in pixels from the children now attached.
+     * A margin given in items keeps its last value while there are no
+     * children to measure.
+     * 
+     * @return true if the margin grew, in which case the caller should fill
+     *         the gaps again
+     */
+    boolean updateOffscreenMarginPixels() {
+        int pixels = mOffscreenMargin;
+        if (mPagingEnabled) {
+            // Every page is as wide as the list content
+            pixels = mOffscreenPageLimit
+                    * Math.max(0, getWidth() - mListPadding.left
+                            - mListPadding.right + getItemSpacing());
+        } else if (pixels != 0 && mOffscreenMarginInItems) {
+            final int averageWidth = getAverageChildWidth();
+            if (averageWidth == 0) {
+                return false;
+            }
+            pixels *= averageWidth + getItemSpacing();
         }
+        final boolean grew = pixels > mOffscreenMarginPixels;
+        mOffscreenMarginPixels = pixels;
+        return grew;
+    }
 
-        offsetChildrenLeftAndRight(incrementalDeltaX);
+    /**
+     * @return The first position on screen, or {@link #mFirstPosition} if no
+     *         offscreen margin is set or nothing is on screen
+     */
+    int getFirstOnScreenPositionInt() {
+        if (mOffscreenMarginPixels == 0) {
+            return mFirstPosition;
+        }
+        final int position = getFirstOnScreenPosition();
+        return position != INVALID_POSITION ? position : mFirstPosition;
+    }
 
-        if (rightTo) {
-            mFirstPosition += count;
+    /**
+     * @return The last position on screen, or the last attached position if
+     *         no offscreen margin is set or nothing is on screen
+     */
+    int getLastOnScreenPositionInt() {
+        if (mOffscreenMarginPixels == 0) {
+            return mFirstPosition + getChildCount() - 1;
         }
+        final int position = getLastOnScreenPosition();
+        return position != INVALID_POSITION ? position : mFirstPosition
+                + getChildCount() - 1;
+    }
 
-        final int absIncrementalDeltaX = Math.abs(incrementalDeltaX);
-        if (spacePrev < absIncrementalDeltaX
-                || spaceNext < absIncrementalDeltaX) {
-            fillGap(rightTo);
+    /**
+     * @return The position of the first item that is at least partly inside
+     *         the padding, or {@link #INVALID_POSITION} if there is none.
+     *         Unlike {@link #getFirstVisiblePosition()}, this does not count
+     *         the items kept in the offscreen margin or in the padding.
+     */
+    public int getFirstOnScreenPosition() {
+        final int index = findChildIndexEndingAfter(mListPadding.left, 0);
+        if (index >= getChildCount()
+                || getChildLeftInViewport(getChildAt(index)) >= getWidth()
+                        - mListPadding.right) {
+            return INVALID_POSITION;
         }
+        return mFirstPosition + index;
+    }
 
-        if (!inTouchMode && mSelectedPosition != INVALID_POSITION) {
-            final int childIndex = mSelectedPosition - mFirstPosition;
-            if (childIndex >= 0 && childIndex < getChildCount()) {
-                positionSelector(mSelectedPosition, getChildAt(childIndex));
-            }
-        } else if (mSelectorPosition != INVALID_POSITION) {
-            final int childIndex = mSelectorPosition - mFirstPosition;
-            if (childIndex >= 0 && childIndex < getChildCount()) {
-                positionSelector(INVALID_POSITION, getChildAt(childIndex));
+    /**
+     * @return The position of the last item that is at least partly inside
+     *         the padding, or {@link #INVALID_POSITION} if there is none.
+     *         Unlike {@link #getLastVisiblePosition()}, this does not count
+     *         the items kept in the offscreen margin or in the padding.
+     */
+    public int getLastOnScreenPosition() {
+        final int index = findChildIndexEndingAfter(getWidth()
+                - mListPadding.right - 1, 0);
+        final int childCount = getChildCount();
+        if (index < childCount) {
+            if (getChildLeftInViewport(getChildAt(index)) < getWidth()
+                    - mListPadding.right) {
+                return mFirstPosition + index;
             }
-        } else {
-            mSelectorRect.setEmpty();
         }
+        // The child before ends before the right edge; it is on screen if it
+        // ends after the left edge
+        if (index > 0
+                && getChildRightInViewport(getChildAt(index - 1)) > mListPadding.left) {
+            return mFirstPosition + index - 1;
+        }
+        return INVALID_POSITION;
+    }
 
-        mBlockLayoutRequests = false;
-
-        invokeOnItemScrollListener();
+    /**
+     * Turns the list into a pager. Every item becomes a page as wide as the
+     * list content, and a release always comes to rest on a page: the next
+     * one if the release was fast enough or scrolled far enough, otherwise
+     * the one it started from. A release never moves more than one page.
+     * 
+     * @param enabled
+     *            true to page
+     * @see #setPagingThresholds(int, float)
+     * @see #setOffscreenPageLimit(int)
+     * @see #setOnPageChangeListener(OnPageChangeListener)
+     */
+    public void setPagingEnabled(boolean enabled) {
+        if (mPagingEnabled == enabled) {
+            return;
+        }
+        mPagingEnabled = enabled;
+        mPagingStartPage = INVALID_POSITION;
+        requestLayout();
+    }
 
-        return false;
+    /**
+     * @return true if the list pages
+     * @see #setPagingEnabled(boolean)
+     */
+    public boolean isPagingEnabled() {
+        return mPagingEnabled;
     }
 
     /**
-     * Fills the gap left open by a touch-scroll. During a touch scroll,
-     * children that remain on screen are shifted and the other ones are
-     * discarded. The role of this method is to fill the gap thus created by
-     * performing a partial layout in the empty space.
+     * Sets when a release turns the page.
      * 
-     * @param right
-     *            true if the scroll is going right, false if it is going left
+     * @param velocity
+     *            Releases faster than this many pixels per second turn the
+     *            page. Defaults to the system minimum fling velocity.
+     * @param distance
+     *            Slower releases turn the page if they scrolled more than this
+     *            fraction of a page. Defaults to 0.5.
      */
-    abstract void fillGap(boolean right);
-
-    void hideSelector() {
-        if (mSelectedPosition != INVALID_POSITION) {
-            if (mLayoutMode != LAYOUT_SPECIFIC) {
-                mResurrectToPosition = mSelectedPosition;
-            }
-            if (mNextSelectedPosition >= 0
-                    && mNextSelectedPosition != mSelectedPosition) {
-                mResurrectToPosition = mNextSelectedPosition;
-            }
-            setSelectedPositionInt(INVALID_POSITION);
-            setNextSelectedPositionInt(INVALID_POSITION);
-            mSelectedLeft = 0;
+    public void setPagingThresholds(int velocity, float distance) {
+        if (velocity < 0 || distance < 0 || distance > 1) {
+            throw new IllegalArgumentException("Invalid paging thresholds: "
+                    + velocity + ", " + distance);
         }
+        mPagingVelocity = velocity;
+        mPagingDistance = distance;
     }
 
     /**
-     * @return A position to select. First we try mSelectedPosition. If that has
-     *         been clobbered by entering touch mode, we then try
-     *         mResurrectToPosition. Values are pinned to the range of items
-     *         available in the adapter
+     * Sets how many pages on either side of the current one stay laid out
+     * while paging, in place of the offscreen margin. Pages further away are
+     * recycled, and the scrap heap keeps the views of at most twice this many
+     * pages, still bound to their page.
+     * 
+     * @param limit
+     *            The number of pages on each side, at least 1. Defaults to 1.
      */
-    int reconcileSelectedPosition() {
-        int position = mSelectedPosition;
-        if (position < 0) {
-            position = mResurrectToPosition;
+    public void setOffscreenPageLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Offscreen page limit must be at least 1: "
+                    + limit);
+        }
+        if (mOffscreenPageLimit == limit) {
+            return;
+        }
+        mOffscreenPageLimit = limit;
+        if (mPagingEnabled) {
+            requestLayout();
         }
-        position = Math.max(0, position);
-        position = Math.min(position, mItemCount - 1);
-        return position;
     }
 
     /**
-     * Find the row closest to x. This row will be used as the motion row when
-     * scrolling
-     * 
-     * @param x
-     *            Where the user touched
-     * @return The position of the first (or only) item in the row containing x
+     * @return The offscreen page limit
+     * @see #setOffscreenPageLimit(int)
      */
-    abstract int findMotionCol(int x);
+    public int getOffscreenPageLimit() {
+        return mOffscreenPageLimit;
+    }
 
     /**
-     * Find the row closest to x. This row will be used as the motion row when
-     * scrolling.
+     * Register a callback to be invoked when the list settles on a new page.
      * 
-     * @param x
-     *            Where the user touched
-     * @return The position of the first (or only) item in the row closest to x
+     * @param listener
+     *            The callback that will run, or null
      */
-    int findClosestMotionCol(int x) {
-        final int childCount = getChildCount();
-        if (childCount == 0) {
-            return INVALID_POSITION;
-        }
+    public void setOnPageChangeListener(OnPageChangeListener listener) {
+        mOnPageChangeListener = listener;
+    }
 
-        final int motionCol = findMotionCol(x);
-        return motionCol != INVALID_POSITION ? motionCol : mFirstPosition
-                + childCount - 1;
+    /**
+     * @return The page the list last came to rest on, or
+     *         {@link #INVALID_POSITION} if it has not settled on one yet
+     */
+    public int getCurrentPage() {
+        return mCurrentPage;
     }
 
     /**
-     * Causes all the views to be rebuilt and redrawn.
+     * Moves to a page.
+     * 
+     * @param page
+     *            The position of the page
+     * @param smoothScroll
+     *            true to animate to the page
      */
-    public void invalidateViews() {
-        mDataChanged = true;
-        rememberSyncState();
-        requestLayout();
-        invalidate();
+    public void setCurrentPage(int page, boolean smoothScroll) {
+        if (page < 0 || page >= mItemCount) {
+            return;
+        }
+        if (smoothScroll && getChildCount() > 0) {
+            mPendingPageChange = false;
+            if (mFlingRunnable == null) {
+                mFlingRunnable = new FlingRunnable();
+            }
+            reportScrollStateChange(OnScrollListener.SCROLL_STATE_FLING);
+            mFlingRunnable.startSnapTo(page);
+        } else {
+            if (mPositionScroller != null) {
+                mPositionScroller.stop();
+            }
+            setSelectionFromLeft(page, 0);
+            // Report the page the layout settles on, as a snap reports the
+            // page it comes to rest on
+            mPendingPageChange = true;
+        }
     }
 
     /**
-     * If there is a selection returns false. Otherwise resurrects the selection
-     * and returns true if resurrected.
+     * Reports the page set by {@link #setCurrentPage(int, boolean)}, if any,
+     * once the list has been laid out on it.
      */
-    boolean resurrectSelectionIfNeeded() {
-        if (mSelectedPosition < 0 && resurrectSelection()) {
-            updateSelectorState();
-            return true;
+    void dispatchPendingPageChange() {
+        if (mPendingPageChange) {
+            mPendingPageChange = false;
+            dispatchPageChanged(findSnapPosition(0, 0));
         }
-        return false;
     }
 
     /**
-     * Makes the item at the supplied position selected.
+     * Picks the page a release at <code>velocity</code> comes to rest on.
      * 
-     * @param position
-     *            the position of the new selection
+     * @param velocity
+     *            The release velocity, positive toward the end of the list
+     */
+    private int choosePage(int velocity) {
+        // The current page, not a page kept in the offscreen margin
+        final int first = getFirstOnScreenPositionInt();
+        final View firstChild = getChildAt(first - mFirstPosition);
+        final int pageWidth = firstChild.getWidth() + getItemSpacing();
+        final int scrolled = mListPadding.left
+                - getChildLeftInViewport(firstChild);
+        final float progress = pageWidth > 0 ? (float) scrolled / pageWidth
+                : 0;
+        final int start = mPagingStartPage;
+
+        int page;
+        if (Math.abs(velocity) > mPagingVelocity) {
+            page = velocity > 0 ? first + 1 : first;
+        } else if (start == INVALID_POSITION || start <= first) {
+            page = progress > mPagingDistance ? first + 1 : first;
+        } else {
+            page = 1 - progress > mPagingDistance ? first : first + 1;
+        }
+        if (start != INVALID_POSITION) {
+            page = Math.max(start - 1, Math.min(start + 1, page));
+        }
+        return Math.max(0, Math.min(mItemCount - 1, page));
+    }
+
+    /**
+     * Reports the page the list came to rest on if it changed.
      */
-    abstract void setSelectionInt(int position);
+    private void dispatchPageChanged(int page) {
+        if (page == INVALID_POSITION || page == mCurrentPage) {
+            return;
+        }
+        mCurrentPage = page;
+        if (mOnPageChangeListener != null) {
+            mOnPageChangeListener.onPageSelected(this, page);
+        }
+    }
 
     /**
      * Attempt to bring the selection back if the user is switching from touch
@@ -4760,6 +8100,8 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             return false;
         }
 
+        rebaseViewport();
+
         int selectedLeft = 0;
         int selectedPos;
         int childrenLeft = mListPadding.left;
@@ -4836,7 +8178,9 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         }
 
         mResurrectToPosition = INVALID_POSITION;
-        removeCallbacks(mFlingRunnable);
+        if (mFlingRunnable != null) {
+            mFlingRunnable.removeFrame();
+        }
         if (mPositionScroller != null) {
             mPositionScroller.stop();
         }
@@ -4858,39 +8202,65 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         return selectedPos >= 0;
     }
 
+    @Override
+    int findSyncPosition() {
+        if (mAdapter instanceof IdPositionAdapter && mItemCount > 0
+                && mSyncColId != INVALID_COL_ID) {
+            final int position = ((IdPositionAdapter) mAdapter)
+                    .getPositionForItemId(mSyncColId);
+            return position >= 0 && position < mItemCount ? position
+                    : INVALID_POSITION;
+        }
+        return super.findSyncPosition();
+    }
+
     void confirmCheckedPositionsById() {
         // Clear out the positional check states, we'll rebuild it below from
         // IDs.
         mCheckStates.clear();
 
         boolean checkedCountChanged = false;
-        int checkedIndex = 0;
-        for (Map.Entry<Long, Integer> idEntry : mCheckedIdStates.entrySet()) {
+        final IdPositionAdapter idIndex = mAdapter instanceof IdPositionAdapter ? (IdPositionAdapter) mAdapter
+                : null;
+        final Iterator<Map.Entry<Long, Integer>> entries = mCheckedIdStates
+                .entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<Long, Integer> idEntry = entries.next();
             final long id = idEntry.getKey();
             final int lastPos = idEntry.getValue();
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
+            final long lastPosId = lastPos < mItemCount ? mAdapter
+                    .getItemId(lastPos) : INVALID_COL_ID;
             if (id != lastPosId) {
-                // Look around to see if the ID is nearby. If not, uncheck it.
-                final int start = Math.max(0, lastPos
-                        - CHECK_POSITION_SEARCH_DISTANCE);
-                final int end = Math.min(lastPos
-                        + CHECK_POSITION_SEARCH_DISTANCE, mItemCount);
                 boolean found = false;
-                for (int searchPos = start; searchPos < end; searchPos++) {
-                    final long searchId = mAdapter.getItemId(searchPos);
-                    if (id == searchId) {
+                if (idIndex != null) {
+                    // Ask the adapter where the ID went
+                    final int position = idIndex.getPositionForItemId(id);
+                    if (position >= 0 && position < mItemCount) {
                         found = true;
-                        mCheckStates.put(searchPos, true);
-                        mCheckedIdStates.put(Long.valueOf(checkedIndex),
-                                searchPos);
-                        break;
+                        mCheckStates.put(position, true);
+                        idEntry.setValue(position);
+                    }
+                } else {
+                    // Look around to see if the ID is nearby. If not, uncheck
+                    // it.
+                    final int start = Math.max(0, lastPos
+                            - CHECK_POSITION_SEARCH_DISTANCE);
+                    final int end = Math.min(lastPos
+                            + CHECK_POSITION_SEARCH_DISTANCE, mItemCount);
+                    for (int searchPos = start; searchPos < end; searchPos++) {
+                        final long searchId = mAdapter.getItemId(searchPos);
+                        if (id == searchId) {
+                            found = true;
+                            mCheckStates.put(searchPos, true);
+                            idEntry.setValue(searchPos);
+                            break;
+                        }
                     }
                 }
 
                 if (!found) {
-                    mCheckedIdStates.remove(id);
-                    checkedIndex--;
+                    entries.remove();
                     mCheckedItemCount--;
                     checkedCountChanged = true;
                     if (mChoiceActionMode != null
@@ -4902,8 +8272,6 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             } else {
                 mCheckStates.put(lastPos, true);
             }
-
-            checkedIndex++;
         }
 
         if (checkedCountChanged && mChoiceActionMode != null) {
@@ -5138,7 +8506,22 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
         @Override
         public void onChanged() {
+            mChangeRangeTracker.onChanged(getAdapter(), mFirstPosition,
+                    mSelectedPosition);
             mDataChanged = true;
+            mDataSetGeneration++;
+            mItemInfo.clear();
+            if (mCoalesceUpdates && mInstanceState == null) {
+                // Keep the count of the last processed change so that the
+                // whole burst is seen as one change.
+                if (!mCoalescedDataChange) {
+                    mOldItemCount = mItemCount;
+                }
+                mItemCount = getAdapter().getCount();
+                mCoalescedDataChange = true;
+                scheduleCoalescedUpdate();
+                return;
+            }
             mOldItemCount = mItemCount;
             mItemCount = getAdapter().getCount();
 
@@ -5158,7 +8541,11 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
         @Override
         public void onInvalidated() {
+            mChangeRangeTracker.onInvalidated();
             mDataChanged = true;
+            mDataSetGeneration++;
+            mItemInfo.clear();
+            mCoalescedDataChange = false;
 
             if (getAdapter().hasStableIds()) {
                 // Remember the current state for the case where our hosting
@@ -5308,6 +8695,19 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
          */
         long itemId = -1;
 
+        /**
+         * When set, the view was bound by
+         * {@link PlaceholderAdapter#getPlaceholderView(int, View, ViewGroup)}
+         * and still has to be bound in full.
+         */
+        boolean placeholder;
+
+        /**
+         * When set, the list gave the view a hardware layer for a fling and
+         * takes it away afterwards.
+         */
+        boolean scrollingLayer;
+
         public LayoutParams(Context c, AttributeSet attrs) {
             super(c, attrs);
         }
@@ -5345,6 +8745,100 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         void onMovedToScrapHeap(View view);
     }
 
+    /**
+     * Remembers the view type, id and enabled state of the positions queried
+     * during one layout or scroll pass, so that each adapter query runs at
+     * most once per position per pass. Entries are direct mapped by position;
+     * {@link #clear()} only bumps a stamp, so it is cheap to call at the
+     * start of every pass.
+     */
+    class ItemInfoCache {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private static final int HAS_VIEW_TYPE = 1;
+        private static final int HAS_ITEM_ID = 1 << 1;
+        private static final int HAS_ENABLED = 1 << 2;
+        private static final int ENABLED = 1 << 3;
+
+        private int[] mPositions = new int[INITIAL_CAPACITY];
+        private int[] mStamps = new int[INITIAL_CAPACITY];
+        private int[] mFlags = new int[INITIAL_CAPACITY];
+        private int[] mViewTypes = new int[INITIAL_CAPACITY];
+        private long[] mItemIds = new long[INITIAL_CAPACITY];
+        private int mStamp = 1;
+
+        /**
+         * Forgets every cached value. Must be called whenever the adapter
+         * data may have changed.
+         */
+        void clear() {
+            mStamp++;
+            if (mStamp == 0) {
+                // Wrapped around; stale entries could match again.
+                Arrays.fill(mStamps, 0);
+                mStamp = 1;
+            }
+        }
+
+        /**
+         * Makes sure the cache can hold a pass that touches
+         * <code>count</code> positions without evicting its own entries.
+         */
+        void ensureCapacity(int count) {
+            int capacity = mPositions.length;
+            if (capacity >= count) {
+                return;
+            }
+            while (capacity < count) {
+                capacity <<= 1;
+            }
+            mPositions = new int[capacity];
+            mStamps = new int[capacity];
+            mFlags = new int[capacity];
+            mViewTypes = new int[capacity];
+            mItemIds = new long[capacity];
+        }
+
+        private int slot(int position) {
+            final int index = position & (mPositions.length - 1);
+            if (mStamps[index] != mStamp || mPositions[index] != position) {
+                mStamps[index] = mStamp;
+                mPositions[index] = position;
+                mFlags[index] = 0;
+            }
+            return index;
+        }
+
+        int getItemViewType(int position) {
+            final int index = slot(position);
+            if ((mFlags[index] & HAS_VIEW_TYPE) == 0) {
+                mViewTypes[index] = mAdapter.getItemViewType(position);
+                mFlags[index] |= HAS_VIEW_TYPE;
+            }
+            return mViewTypes[index];
+        }
+
+        long getItemId(int position) {
+            final int index = slot(position);
+            if ((mFlags[index] & HAS_ITEM_ID) == 0) {
+                mItemIds[index] = mAdapter.getItemId(position);
+                mFlags[index] |= HAS_ITEM_ID;
+            }
+            return mItemIds[index];
+        }
+
+        boolean isEnabled(int position) {
+            final int index = slot(position);
+            if ((mFlags[index] & HAS_ENABLED) == 0) {
+                mFlags[index] |= HAS_ENABLED;
+                if (mAdapter.isEnabled(position)) {
+                    mFlags[index] |= ENABLED;
+                }
+            }
+            return (mFlags[index] & ENABLED) != 0;
+        }
+    }
+
     /**
      * The RecycleBin facilitates reuse of views across layouts. The RecycleBin
      * has two levels of storage: ActiveViews and ScrapViews. ActiveViews are
@@ -5387,6 +8881,28 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
 
         private SparseArray<View> mTransientStateViews;
 
+        /**
+         * The page {@link #mPageDistanceComparator} measures from.
+         */
+        private int mPruneCenter;
+
+        /**
+         * Orders scrap views by the distance of the page they were scrapped
+         * from to {@link #mPruneCenter}, nearest first.
+         */
+        private final Comparator<View> mPageDistanceComparator = new Comparator<View>() {
+            @Override
+            public int compare(View lhs, View rhs) {
+                return distance(lhs) - distance(rhs);
+            }
+
+            private int distance(View scrap) {
+                return Math.abs(((AbsHorizontalListView.LayoutParams) scrap
+                        .getLayoutParams()).scrappedFromPosition
+                        - mPruneCenter);
+            }
+        };
+
         public void setViewTypeCount(int viewTypeCount) {
             if (viewTypeCount < 1) {
                 throw new IllegalArgumentException(
@@ -5427,6 +8943,10 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             }
         }
 
+        int getViewTypeCount() {
+            return mViewTypeCount;
+        }
+
         public boolean shouldRecycleViewType(int viewType) {
             return viewType >= 0;
         }
@@ -5537,7 +9057,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             if (mViewTypeCount == 1) {
                 return retrieveFromScrap(mCurrentScrap, position);
             } else {
-                int whichScrap = mAdapter.getItemViewType(position);
+                int whichScrap = mItemInfo.getItemViewType(position);
                 if (whichScrap >= 0 && whichScrap < mScrapViews.length) {
                     return retrieveFromScrap(mScrapViews[whichScrap], position);
                 }
@@ -5559,6 +9079,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             }
 
             lp.scrappedFromPosition = position;
+            demoteScrollingLayer(scrap);
 
             // Don't put header or footer views or views that should be ignored
             // into the scrap heap
@@ -5627,6 +9148,7 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                     int whichScrap = lp.viewType;
 
                     activeViews[i] = null;
+                    demoteScrollingLayer(victim);
 
                     final boolean scrapHasTransientState = false; // victim.hasTransientState();
                     if (!shouldRecycleViewType(whichScrap)
@@ -5666,9 +9188,10 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
         /**
          * Makes sure that the size of mScrapViews does not exceed the size of
          * mActiveViews. (This can happen if an adapter does not recycle its
-         * views).
+         * views). While paging, also drops the views of the pages beyond the
+         * offscreen page limit.
          */
-        private void pruneScrapViews() {
+        void pruneScrapViews() {
             final int maxViews = mActiveViews.length;
             final int viewTypeCount = mViewTypeCount;
             final ArrayList<View>[] scrapViews = mScrapViews;
@@ -5678,7 +9201,12 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
                 final int extras = size - maxViews;
                 size--;
                 for (int j = 0; j < extras; j++) {
-                    removeDetachedView(scrapPile.remove(size--), false);
+                    final View scrap = scrapPile.remove(size--);
+                    demoteScrollingLayer(scrap);
+                    removeDetachedView(scrap, false);
+                }
+                if (mPagingEnabled) {
+                    prunePages(scrapPile);
                 }
             }
 
@@ -5693,6 +9221,25 @@ public abstract class AbsHorizontalListView extends AdapterView<ListAdapter>
             // }
         }
 
+        /**
+         * Drops the scrap views of the pages furthest from the current one
+         * until at most two offscreen page limits remain.
+         */
+        private void prunePages(ArrayList<View> scrapPile) {
+            final int maxViews = 2 * mOffscreenPageLimit;
+            int size = scrapPile.size();
+            if (size <= maxViews) {
+                return;
+            }
+            mPruneCenter = getFirstOnScreenPositionInt();
+            Collections.sort(scrapPile, mPageDistanceComparator);
+            while (size > maxViews) {
+                final View scrap = scrapPile.remove(--size);
+                demoteScrollingLayer(scrap);
+                removeDetachedView(scrap, false);
+            }
+        }
+
         /**
          * Puts all views in the scrap heap into the supplied list.
          */
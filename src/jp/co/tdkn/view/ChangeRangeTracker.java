@@ -0,0 +1,102 @@
+package jp.co.tdkn.view;
+
+/**
+ * Follows the first attached position and the selected position of a list
+ * through the data set changes that arrive before its next layout, using the
+ * ranges reported by an {@link AbsHorizontalListView.ChangeRangeAdapter}. The
+ * positions are only known if every change since the last layout was
+ * described.
+ */
+final class ChangeRangeTracker {
+    private boolean mPending;
+    private boolean mComplete;
+    private int mFirstPosition;
+    private int mSelectedPosition;
+
+    /**
+     * Maps the followed positions through the change the adapter just
+     * announced.
+     *
+     * @param adapter
+     *            The adapter that announced the change
+     * @param firstPosition
+     *            The first attached position, taken on the first change since
+     *            the last layout
+     * @param selectedPosition
+     *            The selected position, taken on the first change since the
+     *            last layout
+     */
+    void onChanged(Object adapter, int firstPosition, int selectedPosition) {
+        if (!mPending) {
+            mPending = true;
+            mComplete = true;
+            mFirstPosition = firstPosition;
+            mSelectedPosition = selectedPosition;
+        }
+        if (!mComplete) {
+            return;
+        }
+        if (!(adapter instanceof AbsHorizontalListView.ChangeRangeAdapter)) {
+            mComplete = false;
+            return;
+        }
+        final AbsHorizontalListView.ChangeRangeAdapter ranges = (AbsHorizontalListView.ChangeRangeAdapter) adapter;
+        final int rangeCount = ranges.getChangeRangeCount();
+        if (rangeCount < 0) {
+            mComplete = false;
+            return;
+        }
+        mFirstPosition = map(ranges, rangeCount, mFirstPosition);
+        mSelectedPosition = map(ranges, rangeCount, mSelectedPosition);
+    }
+
+    /**
+     * Forgets the followed positions after a change that was not described.
+     */
+    void onInvalidated() {
+        mPending = true;
+        mComplete = false;
+    }
+
+    /**
+     * @return true if every change since the last layout was described, so
+     *         that {@link #getFirstPosition()} and
+     *         {@link #getSelectedPosition()} are known
+     */
+    boolean isComplete() {
+        return mPending && mComplete;
+    }
+
+    int getFirstPosition() {
+        return mFirstPosition;
+    }
+
+    int getSelectedPosition() {
+        return mSelectedPosition;
+    }
+
+    void reset() {
+        mPending = false;
+    }
+
+    /**
+     * @return The position of the item at <code>position</code> after the
+     *         change. A removed item maps to the item that took its place.
+     */
+    private static int map(AbsHorizontalListView.ChangeRangeAdapter ranges,
+            int rangeCount, int position) {
+        int shift = 0;
+        for (int i = 0; i < rangeCount; i++) {
+            final int start = ranges.getChangeRangeStart(i);
+            if (position < start) {
+                break;
+            }
+            final int removed = ranges.getChangeRangeRemovedCount(i);
+            if (position < start + removed) {
+                return start + shift;
+            }
+            shift += ranges.getChangeRangeInsertedCount(i) - removed;
+        }
+        return position + shift;
+    }
+}
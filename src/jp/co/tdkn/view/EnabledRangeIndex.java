@@ -0,0 +1,129 @@
+package jp.co.tdkn.view;
+
+import java.util.Arrays;
+
+import android.widget.ListAdapter;
+
+/**
+ * The enabled positions of a data set as sorted runs of consecutive
+ * positions, so that the nearest enabled position in either direction can be
+ * found with a binary search over the runs instead of asking the adapter
+ * position by position.
+ */
+final class EnabledRangeIndex {
+    private int[] mStarts = new int[8];
+
+    /**
+     * Exclusive end of each run
+     */
+    private int[] mEnds = new int[8];
+
+    private int mRunCount;
+    private int mCount;
+    private int mGeneration = -1;
+
+    /**
+     * @return true if the index was built for this data set generation and
+     *         item count.
+     */
+    boolean isCurrent(int generation, int count) {
+        return mGeneration == generation && mCount == count;
+    }
+
+    /**
+     * Rebuilds the index for the <code>count</code> items of
+     * <code>adapter</code>, from the ranges the adapter reports if it
+     * implements {@link AbsHorizontalListView.EnabledRangeAdapter}, otherwise
+     * by asking it about every position once.
+     */
+    void build(int generation, int count, ListAdapter adapter) {
+        mGeneration = generation;
+        mCount = count;
+        mRunCount = 0;
+        if (adapter instanceof AbsHorizontalListView.EnabledRangeAdapter) {
+            final AbsHorizontalListView.EnabledRangeAdapter ranges = (AbsHorizontalListView.EnabledRangeAdapter) adapter;
+            final int rangeCount = ranges.getEnabledRangeCount();
+            for (int i = 0; i < rangeCount; i++) {
+                add(ranges.getEnabledRangeStart(i), ranges.getEnabledRangeEnd(i));
+            }
+            return;
+        }
+        int start = -1;
+        for (int position = 0; position < count; position++) {
+            if (adapter.isEnabled(position)) {
+                if (start < 0) {
+                    start = position;
+                }
+            } else if (start >= 0) {
+                add(start, position);
+                start = -1;
+            }
+        }
+        if (start >= 0) {
+            add(start, count);
+        }
+    }
+
+    private void add(int start, int end) {
+        start = Math.max(0, start);
+        end = Math.min(mCount, end);
+        if (start >= end) {
+            return;
+        }
+        final int last = mRunCount - 1;
+        if (last >= 0 && start < mEnds[last]) {
+            throw new IllegalArgumentException("Enabled ranges must be sorted and disjoint: ["
+                    + start + ", " + end + ") after [" + mStarts[last] + ", "
+                    + mEnds[last] + ")");
+        }
+        if (last >= 0 && start == mEnds[last]) {
+            mEnds[last] = end;
+            return;
+        }
+        if (mRunCount == mStarts.length) {
+            mStarts = Arrays.copyOf(mStarts, mRunCount * 2);
+            mEnds = Arrays.copyOf(mEnds, mRunCount * 2);
+        }
+        mStarts[mRunCount] = start;
+        mEnds[mRunCount] = end;
+        mRunCount++;
+    }
+
+    /**
+     * @return The first enabled position at or after <code>position</code>,
+     *         or -1 if there is none.
+     */
+    int next(int position) {
+        // The first run that ends after position
+        int low = 0;
+        int high = mRunCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mEnds[mid] > position) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low < mRunCount ? Math.max(mStarts[low], position) : -1;
+    }
+
+    /**
+     * @return The last enabled position at or before <code>position</code>,
+     *         or -1 if there is none.
+     */
+    int previous(int position) {
+        // The last run that starts at or before position
+        int low = 0;
+        int high = mRunCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mStarts[mid] <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low > 0 ? Math.min(mEnds[low - 1] - 1, position) : -1;
+    }
+}
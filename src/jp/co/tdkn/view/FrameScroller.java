@@ -0,0 +1,193 @@
+package jp.co.tdkn.view;
+
+/**
+ * A one dimensional scroller driven by frame timestamps. Unlike
+ * {@link android.widget.OverScroller}, which samples the current time when
+ * asked for a position, every position is computed for the time it is passed,
+ * so that successive frames move by amounts that match the time between them
+ * however late each frame is handled.
+ */
+final class FrameScroller {
+    private static final int MODE_FLING = 0;
+    private static final int MODE_SCROLL = 1;
+
+    private static final float VISCOUS_FLUID_SCALE = 8.0f;
+    private static final float VISCOUS_FLUID_NORMALIZE;
+
+    static {
+        VISCOUS_FLUID_NORMALIZE = 1.0f / viscousFluid(1.0f, 1.0f);
+    }
+
+    private final SplineFling mSpline;
+
+    private int mMode;
+    private boolean mFinished = true;
+
+    private int mStart;
+    private int mFinal;
+    private int mCurr;
+    private float mVelocity;
+
+    /**
+     * Frame time the animation started at, in nanoseconds
+     */
+    private long mStartTime;
+
+    /**
+     * When the animation ends, in nanoseconds after it started
+     */
+    private long mDuration;
+
+    /**
+     * The length of the whole fling curve, of which a fling cut short by its
+     * bounds only runs the beginning
+     */
+    private long mSplineDuration;
+    private double mSplineDistance;
+
+    FrameScroller(SplineFling spline) {
+        mSpline = spline;
+    }
+
+    /**
+     * Starts a fling. If the fling would come to rest outside of
+     * [<code>min</code>, <code>max</code>] it is cut short at the bound.
+     *
+     * @param frameTimeNanos
+     *            The time the fling starts at
+     * @param start
+     *            The starting position
+     * @param velocity
+     *            The initial velocity in pixels per second
+     */
+    void fling(long frameTimeNanos, int start, int velocity, int min, int max) {
+        mMode = MODE_FLING;
+        mStart = mCurr = mFinal = start;
+        mStartTime = frameTimeNanos;
+        mVelocity = velocity;
+        mSplineDuration = (long) (mSpline.getDuration(velocity) * 1000000.0);
+        if (velocity == 0 || mSplineDuration <= 0) {
+            mDuration = 0;
+            mVelocity = 0;
+            mFinished = true;
+            return;
+        }
+        mSplineDistance = Math.signum(velocity) * mSpline.getDistance(velocity);
+        mDuration = mSplineDuration;
+        mFinal = start + (int) Math.round(mSplineDistance);
+        if (mFinal < min) {
+            adjustDuration(start, mFinal, min);
+            mFinal = min;
+        }
+        if (mFinal > max) {
+            adjustDuration(start, mFinal, max);
+            mFinal = max;
+        }
+        mFinished = false;
+    }
+
+    private void adjustDuration(int start, int oldFinal, int newFinal) {
+        final int oldDistance = oldFinal - start;
+        if (oldDistance == 0) {
+            return;
+        }
+        final float x = Math.abs((float) (newFinal - start) / oldDistance);
+        mDuration = (long) (mSplineDuration * SplineFling.getTimeCoefficient(x));
+    }
+
+    /**
+     * Starts scrolling <code>distance</code> pixels in
+     * <code>duration</code> milliseconds.
+     */
+    void startScroll(long frameTimeNanos, int start, int distance, int duration) {
+        mMode = MODE_SCROLL;
+        mStart = mCurr = start;
+        mFinal = start + distance;
+        mStartTime = frameTimeNanos;
+        mDuration = duration * 1000000L;
+        mVelocity = 0;
+        mFinished = false;
+    }
+
+    /**
+     * Moves to the position for <code>frameTimeNanos</code>.
+     *
+     * @return false if the animation had already finished
+     */
+    boolean computeScrollOffset(long frameTimeNanos) {
+        if (mFinished) {
+            return false;
+        }
+        final long elapsed = Math.max(0, frameTimeNanos - mStartTime);
+        if (elapsed >= mDuration) {
+            mCurr = mFinal;
+            mVelocity = 0;
+            mFinished = true;
+            return true;
+        }
+        if (mMode == MODE_FLING) {
+            final float t = (float) elapsed / mSplineDuration;
+            mCurr = mStart
+                    + (int) Math.round(SplineFling.getDistanceCoefficient(t)
+                            * mSplineDistance);
+            mVelocity = (float) (SplineFling.getVelocityCoefficient(t)
+                    * mSplineDistance * 1000000000.0 / mSplineDuration);
+        } else {
+            final float t = (float) elapsed / mDuration;
+            mCurr = mStart
+                    + Math.round(viscousFluid(t, VISCOUS_FLUID_NORMALIZE)
+                            * (mFinal - mStart));
+        }
+        return true;
+    }
+
+    /**
+     * Stops the animation at its final position.
+     */
+    void abortAnimation() {
+        mCurr = mFinal;
+        mVelocity = 0;
+        mFinished = true;
+    }
+
+    boolean isFinished() {
+        return mFinished;
+    }
+
+    int getCurrX() {
+        return mCurr;
+    }
+
+    int getFinalX() {
+        return mFinal;
+    }
+
+    /**
+     * @return The current velocity in pixels per second, signed like the
+     *         direction of travel. Always 0 for scrolls started with
+     *         {@link #startScroll(long, int, int, int)}.
+     */
+    float getVelocity() {
+        return mVelocity;
+    }
+
+    /**
+     * @return true if a fling is running in the direction of
+     *         <code>velocity</code>
+     */
+    boolean isScrollingInDirection(float velocity) {
+        return !mFinished && Math.signum(velocity) == Math.signum(mFinal - mStart);
+    }
+
+    private static float viscousFluid(float x, float normalize) {
+        x *= VISCOUS_FLUID_SCALE;
+        if (x < 1.0f) {
+            x -= (1.0f - (float) Math.exp(-x));
+        } else {
+            final float start = 0.36787944117f; // 1/e == exp(-1)
+            x = 1.0f - (float) Math.exp(1.0f - x);
+            x = start + x * (1.0f - start);
+        }
+        return x * normalize;
+    }
+}
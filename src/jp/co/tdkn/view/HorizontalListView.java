@@ -42,6 +42,37 @@ public class HorizontalListView extends AbsHorizontalListView {
      */
     private static final int MIN_SCROLL_PREVIEW_PIXELS = 2;
 
+    /**
+     * Wrap content measurement strategy that measures every item until the
+     * available width is filled. This is the default.
+     * 
+     * @see #setWrapContentMeasureStrategy(int, int)
+     */
+    public static final int MEASURE_ALL = 0;
+
+    /**
+     * Wrap content measurement strategy that measures at most a fixed number
+     * of leading items and reports their width.
+     * 
+     * @see #setWrapContentMeasureStrategy(int, int)
+     */
+    public static final int MEASURE_CAPPED = 1;
+
+    /**
+     * Wrap content measurement strategy that measures a fixed number of
+     * leading items and extrapolates their average width to the whole
+     * adapter.
+     * 
+     * @see #setWrapContentMeasureStrategy(int, int)
+     */
+    public static final int MEASURE_SAMPLED = 2;
+
+    /**
+     * Default number of items measured by {@link #MEASURE_CAPPED} and
+     * {@link #MEASURE_SAMPLED}.
+     */
+    private static final int DEFAULT_MEASURE_LIMIT = 8;
+
     /**
      * A class that represents a fixed view in a list, for example a header at
      * the top or a footer at the bottom.
@@ -66,10 +97,19 @@ public class HorizontalListView extends AbsHorizontalListView {
 
     private boolean mAreAllItemsSelectable = true;
 
+    /**
+     * The enabled positions of the data set, built the first time a
+     * selectable position is looked for after a data set change.
+     */
+    private EnabledRangeIndex mEnabledRanges;
+
     private boolean mItemsCanFocus = false;
 
     // used for temporary calculations.
     private final Rect mTempRect = new Rect();
+
+    // the clip bounds of the canvas dividers are drawn to
+    private final Rect mDividerClip = new Rect();
     private Paint mDividerPaint;
 
     // the single allocated result per list view; kinda cheesey but avoids
@@ -79,6 +119,19 @@ public class HorizontalListView extends AbsHorizontalListView {
     // Keeps focused children visible through resizes
     private FocusSelector mFocusSelector;
 
+    private int mWrapMeasureStrategy = MEASURE_ALL;
+    private int mWrapMeasureLimit = DEFAULT_MEASURE_LIMIT;
+
+    // Last wrap_content width and the inputs it was computed from. The result
+    // is reused until the data set, the spec or the divider/padding changes.
+    private boolean mWrapWidthValid;
+    private int mWrapWidth;
+    private int mWrapHeightSpec;
+    private int mWrapMaxWidth;
+    private int mWrapDividerWidth;
+    private int mWrapPadding;
+    private int mWrapGeneration;
+
     public HorizontalListView(Context context) {
         this(context, null);
     }
@@ -235,12 +288,63 @@ public class HorizontalListView extends AbsHorizontalListView {
      */
     @Override
     public void setAdapter(ListAdapter adapter) {
+        setAdapterInternal(adapter, false);
+    }
+
+    /**
+     * Replaces the adapter, reusing the views of the previous one. Unlike
+     * {@link #setAdapter(ListAdapter)}, which discards every recycled view,
+     * this moves the children into the scrap heap and keeps it, so that the
+     * new adapter gets them back as convert views and rebinds them instead of
+     * inflating new ones, e.g. when switching between tabs that show their
+     * items with the same layouts.
+     * 
+     * @param adapter
+     *            The new adapter
+     * @param keepViews
+     *            true if the views of each view type of the previous adapter
+     *            can be converted by the view type with the same number of
+     *            <code>adapter</code>. Views are only kept if both adapters
+     *            also have as many view types.
+     */
+    public void swapAdapter(ListAdapter adapter, boolean keepViews) {
+        setAdapterInternal(adapter, keepViews);
+    }
+
+    /**
+     * Sets the data behind this ListView.
+     * 
+     * @param adapter
+     *            The new adapter
+     * @param keepScrap
+     *            true to move the children into the scrap heap and keep it
+     *            rather than clearing it, if <code>adapter</code> has as many
+     *            view types as the previous adapter. A view type must then
+     *            stand for the same layout in both adapters.
+     */
+    void setAdapterInternal(ListAdapter adapter, boolean keepScrap) {
         if (mAdapter != null && mDataSetObserver != null) {
             mAdapter.unregisterDataSetObserver(mDataSetObserver);
         }
 
+        keepScrap = keepScrap && adapter != null
+                && adapter.getViewTypeCount() == mRecycler.getViewTypeCount();
+        if (keepScrap) {
+            final int childCount = getChildCount();
+            final int firstPosition = mFirstPosition;
+            for (int i = 0; i < childCount; i++) {
+                mRecycler.addScrapView(getChildAt(i), firstPosition + i);
+            }
+            detachAllViewsFromParent();
+            mRecycler.removeSkippedScrap();
+            // The new data may not have the same sizes
+            mRecycler.markChildrenDirty();
+        }
+
         resetList();
-        mRecycler.clear();
+        if (!keepScrap) {
+            mRecycler.clear();
+        }
 
         mAdapter = adapter;
 
@@ -256,10 +360,17 @@ public class HorizontalListView extends AbsHorizontalListView {
             mItemCount = mAdapter.getCount();
             checkFocus();
 
-            mDataSetObserver = new AdapterDataSetObserver();
+            if (mDataSetObserver == null) {
+                mDataSetObserver = new AdapterDataSetObserver();
+            } else {
+                // The state it kept belongs to the previous adapter
+                mDataSetObserver.clearSavedState();
+            }
             mAdapter.registerDataSetObserver(mDataSetObserver);
 
-            mRecycler.setViewTypeCount(mAdapter.getViewTypeCount());
+            if (!keepScrap) {
+                mRecycler.setViewTypeCount(mAdapter.getViewTypeCount());
+            }
 
             int position;
             position = lookForSelectablePosition(0, true);
@@ -295,7 +406,8 @@ public class HorizontalListView extends AbsHorizontalListView {
      */
     private boolean showingLeftFadingEdge() {
         final int listLeft = getScrollX() + mListPadding.left;
-        return (mFirstPosition > 0) || (getChildAt(0).getLeft() > listLeft);
+        return (mFirstPosition > 0)
+                || (getChildLeftInViewport(getChildAt(0)) > listLeft);
     }
 
     /**
@@ -303,7 +415,7 @@ public class HorizontalListView extends AbsHorizontalListView {
      */
     private boolean showingRightFadingEdge() {
         final int childCount = getChildCount();
-        final int rightOfRightChild = getChildAt(childCount - 1).getRight();
+        final int rightOfRightChild = getChildRightInViewport(getChildAt(childCount - 1));
         final int lastVisiblePosition = mFirstPosition + childCount - 1;
 
         final int listRight = getScrollX() + getWidth() - mListPadding.right;
@@ -400,9 +512,12 @@ public class HorizontalListView extends AbsHorizontalListView {
     @Override
     void fillGap(boolean right) {
         final int count = getChildCount();
+        if (count == 0) {
+            rebaseViewport();
+        }
         if (right) {
             int paddingLeft = 0;
-            if ((mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK) {
+            if (getClipToPadding()) {
                 paddingLeft = getListPaddingLeft();
             }
             final int startOffset = count > 0 ? getChildAt(count - 1)
@@ -411,7 +526,7 @@ public class HorizontalListView extends AbsHorizontalListView {
             correctTooHigh(getChildCount());
         } else {
             int paddingRight = 0;
-            if ((mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK) {
+            if (getClipToPadding()) {
                 paddingRight = getListPaddingRight();
             }
             final int startOffset = count > 0 ? getChildAt(0).getLeft()
@@ -437,8 +552,9 @@ public class HorizontalListView extends AbsHorizontalListView {
     private View fillRight(int pos, int nextLeft) {
         View selectedView = null;
 
-        int end = (getRight() - getLeft());
-        if ((mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK) {
+        int end = (getRight() - getLeft()) - mViewportOffset
+                + getOffscreenMarginPixels();
+        if (getClipToPadding()) {
             end -= mListPadding.right;
         }
 
@@ -473,9 +589,9 @@ public class HorizontalListView extends AbsHorizontalListView {
     private View fillLeft(int pos, int nextRight) {
         View selectedView = null;
 
-        int end = 0;
-        if ((mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK) {
-            end = mListPadding.left;
+        int end = -mViewportOffset - getOffscreenMarginPixels();
+        if (getClipToPadding()) {
+            end += mListPadding.left;
         }
 
         while (nextRight > end && pos >= 0) {
@@ -920,11 +1036,10 @@ public class HorizontalListView extends AbsHorizontalListView {
             widthSize = mListPadding.left + mListPadding.right + childWidth
                     + getHorizontalFadingEdgeLength() * 2;
         }
-        if (heightMode == MeasureSpec.AT_MOST) {
+        if (widthMode == MeasureSpec.AT_MOST) {
             // TODO: after first layout we should maybe start at the first
             // visible position, not 0
-            widthSize = measureWidthOfChildren(heightMeasureSpec, 0,
-                    NO_POSITION, widthSize, -1);
+            widthSize = measureWrapContentWidth(heightMeasureSpec, widthSize);
         }
 
         if (heightMode == MeasureSpec.UNSPECIFIED) {
@@ -938,6 +1053,106 @@ public class HorizontalListView extends AbsHorizontalListView {
         mHeightMeasureSpec = heightMeasureSpec;
     }
 
+    /**
+     * Measures the width this list wants when its width is wrap_content,
+     * honoring the configured measure strategy. The result is cached and only
+     * recomputed when the data set, the height spec, the available width, the
+     * divider or the padding changes.
+     * 
+     * @param heightMeasureSpec
+     *            The height measure spec to be given to a child's
+     *            {@link View#measure(int, int)}.
+     * @param maxWidth
+     *            The maximum width that will be returned.
+     * @return The width of this ListView with the measured children.
+     */
+    private int measureWrapContentWidth(int heightMeasureSpec, int maxWidth) {
+        final int dividerWidth = ((mDividerWidth > 0) && mDivider != null) ? mDividerWidth
+                : 0;
+        final int padding = mListPadding.left + mListPadding.right;
+        if (mWrapWidthValid && mWrapGeneration == mDataSetGeneration
+                && mWrapHeightSpec == heightMeasureSpec
+                && mWrapMaxWidth == maxWidth
+                && mWrapDividerWidth == dividerWidth && mWrapPadding == padding) {
+            return mWrapWidth;
+        }
+
+        final int count = mAdapter == null ? 0 : mAdapter.getCount();
+        final int limit = mWrapMeasureLimit;
+        int width;
+        if (mWrapMeasureStrategy == MEASURE_ALL || count <= limit) {
+            width = measureWidthOfChildren(heightMeasureSpec, 0, NO_POSITION,
+                    maxWidth, -1);
+        } else {
+            width = measureWidthOfChildren(heightMeasureSpec, 0, limit - 1,
+                    maxWidth, -1);
+            if (mWrapMeasureStrategy == MEASURE_SAMPLED && width < maxWidth) {
+                // Every sampled item but the last is followed by a divider, so
+                // the average stride includes one divider per item.
+                final long stride = (long) (width - padding + dividerWidth)
+                        * count / limit;
+                width = (int) Math.min(maxWidth, padding + stride
+                        - dividerWidth);
+            }
+        }
+
+        mWrapWidth = width;
+        mWrapHeightSpec = heightMeasureSpec;
+        mWrapMaxWidth = maxWidth;
+        mWrapDividerWidth = dividerWidth;
+        mWrapPadding = padding;
+        mWrapGeneration = mDataSetGeneration;
+        mWrapWidthValid = true;
+        return width;
+    }
+
+    /**
+     * Selects how the list measures its width when it is wrap_content.
+     * {@link #MEASURE_ALL} binds and measures items until the available width
+     * is filled, which can mean binding many items on every measure pass.
+     * {@link #MEASURE_CAPPED} and {@link #MEASURE_SAMPLED} bound the work to
+     * <code>limit</code> items.
+     * 
+     * @param strategy
+     *            One of {@link #MEASURE_ALL}, {@link #MEASURE_CAPPED} or
+     *            {@link #MEASURE_SAMPLED}
+     * @param limit
+     *            The number of items measured by the bounded strategies. Must
+     *            be at least 1.
+     */
+    public void setWrapContentMeasureStrategy(int strategy, int limit) {
+        if (strategy != MEASURE_ALL && strategy != MEASURE_CAPPED
+                && strategy != MEASURE_SAMPLED) {
+            throw new IllegalArgumentException("Unknown measure strategy: "
+                    + strategy);
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        if (strategy != mWrapMeasureStrategy || limit != mWrapMeasureLimit) {
+            mWrapMeasureStrategy = strategy;
+            mWrapMeasureLimit = limit;
+            mWrapWidthValid = false;
+            requestLayout();
+        }
+    }
+
+    /**
+     * @return The wrap content measure strategy
+     * @see #setWrapContentMeasureStrategy(int, int)
+     */
+    public int getWrapContentMeasureStrategy() {
+        return mWrapMeasureStrategy;
+    }
+
+    /**
+     * @return The number of items measured by the bounded strategies
+     * @see #setWrapContentMeasureStrategy(int, int)
+     */
+    public int getWrapContentMeasureLimit() {
+        return mWrapMeasureLimit;
+    }
+
     private void measureScrapChild(View child, int position,
             int heightMeasureSpec) {
         LayoutParams p = (LayoutParams) child.getLayoutParams();
@@ -946,18 +1161,10 @@ public class HorizontalListView extends AbsHorizontalListView {
                     ViewGroup.LayoutParams.WRAP_CONTENT, 0);
             child.setLayoutParams(p);
         }
-        p.viewType = mAdapter.getItemViewType(position);
+        p.viewType = mItemInfo.getItemViewType(position);
         p.forceAdd = true;
 
-        int lpWidth = p.width;
-        int childWidthSpec;
-        if (lpWidth > 0) {
-            childWidthSpec = MeasureSpec.makeMeasureSpec(lpWidth,
-                    MeasureSpec.EXACTLY);
-        } else {
-            childWidthSpec = MeasureSpec.makeMeasureSpec(0,
-                    MeasureSpec.UNSPECIFIED);
-        }
+        int childWidthSpec = getChildWidthMeasureSpec(p.width);
         int childHeightSpec = ViewGroup.getChildMeasureSpec(heightMeasureSpec,
                 mListPadding.top + mListPadding.bottom, p.height);
         child.measure(childWidthSpec, childHeightSpec);
@@ -1075,14 +1282,10 @@ public class HorizontalListView extends AbsHorizontalListView {
 
     @Override
     int findMotionCol(int y) {
-        int childCount = getChildCount();
-        if (childCount > 0) {
-            for (int i = 0; i < childCount; i++) {
-                View v = getChildAt(i);
-                if (y <= v.getRight()) {
-                    return mFirstPosition + i;
-                }
-            }
+        // The first child whose right edge is at or after y
+        final int index = findChildIndexEndingAfter(y - 1, 0);
+        if (index < getChildCount()) {
+            return mFirstPosition + index;
         }
         return INVALID_POSITION;
     }
@@ -1143,6 +1346,7 @@ public class HorizontalListView extends AbsHorizontalListView {
         // top of the list to be pushed up.
         int lastPosition = mFirstPosition + childCount - 1;
         if (lastPosition == mItemCount - 1 && childCount > 0) {
+            rebaseViewport();
 
             // Get the last child ...
             final View lastChild = getChildAt(childCount - 1);
@@ -1199,6 +1403,7 @@ public class HorizontalListView extends AbsHorizontalListView {
         // the
         // bottom of the list to be pushed down.
         if (mFirstPosition == 0 && childCount > 0) {
+            rebaseViewport();
 
             // Get the first child ...
             final View firstChild = getChildAt(0);
@@ -1257,11 +1462,18 @@ public class HorizontalListView extends AbsHorizontalListView {
             return;
         }
 
+        rebaseViewport();
+        updateOffscreenMarginPixels();
+
+        final LayoutProfile profile = beginLayoutProfile();
         try {
             super.layoutChildren();
 
             invalidate();
 
+            mItemInfo.clear();
+            mItemInfo.ensureCapacity(2 * getChildCount());
+
             if (mAdapter == null) {
                 resetList();
                 invokeOnItemScrollListener();
@@ -1316,7 +1528,15 @@ public class HorizontalListView extends AbsHorizontalListView {
 
             boolean dataChanged = mDataChanged;
             if (dataChanged) {
+                final long start = profile != null ? System.nanoTime() : 0;
+                applyChangeRanges();
                 handleDataChanged();
+                if (profile != null) {
+                    profile.handleDataChangedNanos = System.nanoTime() - start;
+                }
+                if (mVisibilityTracker != null) {
+                    mVisibilityTracker.clear();
+                }
             }
 
             // Handle the empty set by removing all views that are visible
@@ -1348,6 +1568,8 @@ public class HorizontalListView extends AbsHorizontalListView {
 
             // Don't put header or footer views into the Recycler. Those are
             // already cached in mHeaderViews;
+            final long fillActiveStart = profile != null ? System.nanoTime()
+                    : 0;
             if (dataChanged) {
                 for (int i = 0; i < childCount; i++) {
                     recycleBin.addScrapView(getChildAt(i), firstPosition + i);
@@ -1355,6 +1577,10 @@ public class HorizontalListView extends AbsHorizontalListView {
             } else {
                 recycleBin.fillActiveViews(childCount, firstPosition);
             }
+            if (profile != null) {
+                profile.fillActiveViewsNanos = System.nanoTime()
+                        - fillActiveStart;
+            }
 
             // take focus back to us temporarily to avoid the eventual
             // call to clear focus when removing the focused child below
@@ -1383,39 +1609,49 @@ public class HorizontalListView extends AbsHorizontalListView {
             // Clear out old views
             detachAllViewsFromParent();
 
+            final long fillStart = profile != null ? System.nanoTime() : 0;
+            int fillStrategy;
             switch (mLayoutMode) {
             case LAYOUT_SET_SELECTION:
                 if (newSel != null) {
                     sel = fillFromSelection(newSel.getLeft(), childrenLeft,
                             childrenRight);
+                    fillStrategy = LayoutProfile.FILL_FROM_SELECTION;
                 } else {
                     sel = fillFromMiddle(childrenLeft, childrenRight);
+                    fillStrategy = LayoutProfile.FILL_FROM_MIDDLE;
                 }
                 break;
             case LAYOUT_SYNC:
                 sel = fillSpecific(mSyncPosition, mSpecificLeft);
+                fillStrategy = LayoutProfile.FILL_SPECIFIC;
                 break;
             case LAYOUT_FORCE_RIGHT:
                 sel = fillLeft(mItemCount - 1, childrenRight);
                 adjustViewsLeftOrRight();
+                fillStrategy = LayoutProfile.FILL_LEFT;
                 break;
             case LAYOUT_FORCE_LEFT:
                 mFirstPosition = 0;
                 sel = fillFromLeft(childrenLeft);
                 adjustViewsLeftOrRight();
+                fillStrategy = LayoutProfile.FILL_FROM_LEFT;
                 break;
             case LAYOUT_SPECIFIC:
                 sel = fillSpecific(reconcileSelectedPosition(), mSpecificLeft);
+                fillStrategy = LayoutProfile.FILL_SPECIFIC;
                 break;
             case LAYOUT_MOVE_SELECTION:
                 sel = moveSelection(oldSel, newSel, delta, childrenLeft,
                         childrenRight);
+                fillStrategy = LayoutProfile.FILL_MOVE_SELECTION;
                 break;
             default:
                 if (childCount == 0) {
                     final int position = lookForSelectablePosition(0, true);
                     setSelectedPositionInt(position);
                     sel = fillFromLeft(childrenLeft);
+                    fillStrategy = LayoutProfile.FILL_FROM_LEFT;
                 } else {
                     if (mSelectedPosition >= 0
                             && mSelectedPosition < mItemCount) {
@@ -1431,12 +1667,28 @@ public class HorizontalListView extends AbsHorizontalListView {
                     } else {
                         sel = fillSpecific(0, childrenLeft);
                     }
+                    fillStrategy = LayoutProfile.FILL_SPECIFIC;
                 }
                 break;
             }
+            if (profile != null) {
+                profile.fillStrategy = fillStrategy;
+                profile.fillNanos = System.nanoTime() - fillStart;
+            }
+
+            // A margin in items is known only once the first children are
+            // measured
+            if (getChildCount() > 0 && updateOffscreenMarginPixels()) {
+                fillGap(true);
+                fillGap(false);
+            }
 
             // Flush any cached views that did not get reused above
+            final long scrapStart = profile != null ? System.nanoTime() : 0;
             recycleBin.scrapActiveViews();
+            if (profile != null) {
+                profile.scrapActiveViewsNanos = System.nanoTime() - scrapStart;
+            }
 
             if (sel != null) {
                 // the current selected item should get focus if items
@@ -1504,6 +1756,19 @@ public class HorizontalListView extends AbsHorizontalListView {
             if (!blockLayoutRequests) {
                 mBlockLayoutRequests = false;
             }
+            if (profile != null) {
+                endLayoutProfile(profile);
+            }
+        }
+
+        if (mPositionScrollAfterLayout != null && !blockLayoutRequests) {
+            // Layout requests are still ignored while we are in onLayout, so
+            // let the pending smooth scroll start on the next frame.
+            post(mPositionScrollAfterLayout);
+            mPositionScrollAfterLayout = null;
+        }
+        if (!blockLayoutRequests) {
+            dispatchPendingPageChange();
         }
     }
 
@@ -1535,6 +1800,9 @@ public class HorizontalListView extends AbsHorizontalListView {
             if (child != null) {
                 // Found it -- we're using an existing child
                 // This just needs to be positioned
+                if (mActiveLayoutProfile != null) {
+                    mActiveLayoutProfile.viewsReused++;
+                }
                 setupChild(child, position, x, flow, childrenTop, selected,
                         true);
 
@@ -1547,7 +1815,8 @@ public class HorizontalListView extends AbsHorizontalListView {
         child = obtainView(position, mIsScrap);
 
         // This needs to be positioned and measured
-        setupChild(child, position, x, flow, childrenTop, selected, mIsScrap[0]);
+        setupChild(child, position, x, flow, childrenTop, selected,
+                mIsScrap[0]);
 
         return child;
     }
@@ -1594,7 +1863,7 @@ public class HorizontalListView extends AbsHorizontalListView {
                     ViewGroup.LayoutParams.MATCH_PARENT,
                     ViewGroup.LayoutParams.WRAP_CONTENT, 0);
         }
-        p.viewType = mAdapter.getItemViewType(position);
+        p.viewType = mItemInfo.getItemViewType(position);
 
         if ((recycled && !p.forceAdd)
                 || (p.recycledHeaderFooter && p.viewType == AdapterView.ITEM_VIEW_TYPE_HEADER_OR_FOOTER)) {
@@ -1618,25 +1887,22 @@ public class HorizontalListView extends AbsHorizontalListView {
         if (mChoiceMode != CHOICE_MODE_NONE && mCheckStates != null) {
             if (child instanceof Checkable) {
                 ((Checkable) child).setChecked(mCheckStates.get(position));
-            } else if (getContext().getApplicationInfo().targetSdkVersion >= android.os.Build.VERSION_CODES.HONEYCOMB) {
+            } else if (mUseActivated) {
                 child.setActivated(mCheckStates.get(position));
             }
         }
 
         if (needToMeasure) {
-            int lpWidth = p.width;
-            int childWidthSpec;
-            if (lpWidth > 0) {
-                childWidthSpec = MeasureSpec.makeMeasureSpec(lpWidth,
-                        MeasureSpec.EXACTLY);
-            } else {
-                childWidthSpec = MeasureSpec.makeMeasureSpec(0,
-                        MeasureSpec.UNSPECIFIED);
-            }
+            int childWidthSpec = getChildWidthMeasureSpec(p.width);
             int childHeightSpec = ViewGroup.getChildMeasureSpec(
                     mHeightMeasureSpec, mListPadding.top + mListPadding.bottom,
                     p.height);
+            final LayoutProfile profile = mActiveLayoutProfile;
+            final long measureStart = profile != null ? System.nanoTime() : 0;
             child.measure(childWidthSpec, childHeightSpec);
+            if (profile != null) {
+                profile.measureNanos += System.nanoTime() - measureStart;
+            }
         } else {
             cleanupLayoutState(child);
         }
@@ -1644,6 +1910,7 @@ public class HorizontalListView extends AbsHorizontalListView {
         final int w = child.getMeasuredWidth();
         final int h = child.getMeasuredHeight();
         final int childLeft = flowRight ? x : x - w;
+        recordItemWidth(position, w);
 
         if (needToMeasure) {
             final int childBottom = childrenTop + h;
@@ -1695,6 +1962,7 @@ public class HorizontalListView extends AbsHorizontalListView {
      *            The distance from the left edge of the ListView (plus padding)
      *            that the item will be positioned.
      */
+    @Override
     public void setSelectionFromLeft(int position, int x) {
         if (mAdapter == null) {
             return;
@@ -1770,14 +2038,17 @@ public class HorizontalListView extends AbsHorizontalListView {
 
         final int count = adapter.getCount();
         if (!mAreAllItemsSelectable) {
+            if (count == mItemCount) {
+                return findEnabledPosition(position, lookDown);
+            }
             if (lookDown) {
                 position = Math.max(0, position);
-                while (position < count && !adapter.isEnabled(position)) {
+                while (position < count && !mItemInfo.isEnabled(position)) {
                     position++;
                 }
             } else {
                 position = Math.min(position, count - 1);
-                while (position >= 0 && !adapter.isEnabled(position)) {
+                while (position >= 0 && !mItemInfo.isEnabled(position)) {
                     position--;
                 }
             }
@@ -1794,8 +2065,47 @@ public class HorizontalListView extends AbsHorizontalListView {
         }
     }
 
+    /**
+     * Finds the nearest enabled position, using the enabled range index
+     * unless all items are enabled.
+     * 
+     * @param position
+     *            The position to start at
+     * @param forward
+     *            true to look at <code>position</code> and after it, false to
+     *            look at it and before it
+     * @return The enabled position, or {@link #INVALID_POSITION}
+     */
+    private int findEnabledPosition(int position, boolean forward) {
+        final int count = mItemCount;
+        if (mAdapter == null) {
+            return INVALID_POSITION;
+        }
+        if (mAreAllItemsSelectable) {
+            if (forward) {
+                position = Math.max(0, position);
+            } else {
+                position = Math.min(position, count - 1);
+            }
+            return position >= 0 && position < count ? position
+                    : INVALID_POSITION;
+        }
+        EnabledRangeIndex ranges = mEnabledRanges;
+        if (ranges == null) {
+            ranges = mEnabledRanges = new EnabledRangeIndex();
+        }
+        if (!ranges.isCurrent(mDataSetGeneration, count)) {
+            ranges.build(mDataSetGeneration, count, mAdapter);
+        }
+        final int found = forward ? ranges.next(Math.max(0, position))
+                : ranges.previous(Math.min(position, count - 1));
+        return found >= 0 ? found : INVALID_POSITION;
+    }
+
     @Override
     public boolean dispatchKeyEvent(KeyEvent event) {
+        // Key handling works on the laid out child coordinates
+        rebaseViewport();
         // Dispatch in the normal way
         boolean handled = super.dispatchKeyEvent(event);
         if (!handled) {
@@ -1972,9 +2282,9 @@ public class HorizontalListView extends AbsHorizontalListView {
             return true;
         }
 
-        // if (sendToTextFilter(keyCode, count, event)) {
-        // return true;
-        // }
+        if (sendToTextFilter(keyCode, count, event)) {
+            return true;
+        }
 
         switch (action) {
         case KeyEvent.ACTION_DOWN:
@@ -2236,7 +2546,11 @@ public class HorizontalListView extends AbsHorizontalListView {
                 positionSelector(selectedPos, selectedView);
                 mSelectedLeft = selectedView.getLeft();
             }
-            if (!awakenScrollBars()) {
+            // Moving the selector within the screen invalidates only the
+            // selector. Scrolling the children or moving focus inside them
+            // needs the whole list redrawn.
+            if ((amountToScroll > 0 || focusResult != null)
+                    && !awakenScrollBars()) {
                 invalidate();
             }
             invokeOnItemScrollListener();
@@ -2348,20 +2662,28 @@ public class HorizontalListView extends AbsHorizontalListView {
                     ViewGroup.LayoutParams.WRAP_CONTENT);
         }
 
-        int lpWidth = p.width;
-        int childWidthSpec;
-        if (lpWidth > 0) {
-            childWidthSpec = MeasureSpec.makeMeasureSpec(lpWidth,
-                    MeasureSpec.EXACTLY);
-        } else {
-            childWidthSpec = MeasureSpec.makeMeasureSpec(0,
-                    MeasureSpec.UNSPECIFIED);
-        }
+        int childWidthSpec = getChildWidthMeasureSpec(p.width);
         int childHeightSpec = ViewGroup.getChildMeasureSpec(mHeightMeasureSpec,
                 mListPadding.top + mListPadding.bottom, p.height);
         child.measure(childWidthSpec, childHeightSpec);
     }
 
+    /**
+     * @return The width measure spec of a child with the given layout width.
+     *         While paging, every child is exactly as wide as the list
+     *         content.
+     */
+    private int getChildWidthMeasureSpec(int lpWidth) {
+        if (isPagingEnabled() && getWidth() > 0) {
+            return MeasureSpec.makeMeasureSpec(getWidth() - mListPadding.left
+                    - mListPadding.right, MeasureSpec.EXACTLY);
+        }
+        if (lpWidth > 0) {
+            return MeasureSpec.makeMeasureSpec(lpWidth, MeasureSpec.EXACTLY);
+        }
+        return MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+    }
+
     /**
      * Layout a child that has been measured, preserving its top position. TODO:
      * unify with setUpChild.
@@ -2514,7 +2836,9 @@ public class HorizontalListView extends AbsHorizontalListView {
      *         is no selectable view on screen in the given direction.
      */
     private int lookForSelectablePositionOnScreen(int direction) {
-        final int firstPosition = mFirstPosition;
+        // Items in the offscreen margin are not on screen
+        final int firstPosition = getFirstOnScreenPositionInt();
+        final int lastVisiblePos = getLastOnScreenPositionInt();
         if (direction == View.FOCUS_DOWN) {
             int startPos = (mSelectedPosition != INVALID_POSITION) ? mSelectedPosition + 1
                     : firstPosition;
@@ -2525,18 +2849,17 @@ public class HorizontalListView extends AbsHorizontalListView {
                 startPos = firstPosition;
             }
 
-            final int lastVisiblePos = getLastVisiblePosition();
-            final ListAdapter adapter = getAdapter();
-            for (int pos = startPos; pos <= lastVisiblePos; pos++) {
-                if (adapter.isEnabled(pos)
-                        && getChildAt(pos - firstPosition).getVisibility() == View.VISIBLE) {
+            for (int pos = findEnabledPosition(startPos, true); pos != INVALID_POSITION
+                    && pos <= lastVisiblePos; pos = findEnabledPosition(pos + 1,
+                    true)) {
+                if (getChildAt(pos - mFirstPosition).getVisibility() == View.VISIBLE) {
                     return pos;
                 }
             }
         } else {
-            int last = firstPosition + getChildCount() - 1;
+            int last = lastVisiblePos;
             int startPos = (mSelectedPosition != INVALID_POSITION) ? mSelectedPosition - 1
-                    : firstPosition + getChildCount() - 1;
+                    : lastVisiblePos;
             if (startPos < 0 || startPos >= mAdapter.getCount()) {
                 return INVALID_POSITION;
             }
@@ -2544,10 +2867,10 @@ public class HorizontalListView extends AbsHorizontalListView {
                 startPos = last;
             }
 
-            final ListAdapter adapter = getAdapter();
-            for (int pos = startPos; pos >= firstPosition; pos--) {
-                if (adapter.isEnabled(pos)
-                        && getChildAt(pos - firstPosition).getVisibility() == View.VISIBLE) {
+            for (int pos = findEnabledPosition(startPos, false); pos != INVALID_POSITION
+                    && pos >= firstPosition; pos = findEnabledPosition(pos - 1,
+                    false)) {
+                if (getChildAt(pos - mFirstPosition).getVisibility() == View.VISIBLE) {
                     return pos;
                 }
             }
@@ -2863,14 +3186,14 @@ public class HorizontalListView extends AbsHorizontalListView {
             final int listLeft = mListPadding != null ? mListPadding.left
                     : getPaddingLeft();
             View first = getChildAt(0);
-            if (first == null || first.getLeft() > listLeft) {
+            if (first == null || getChildLeftInViewport(first) > listLeft) {
                 return false;
             }
             final int listRight = getWidth()
                     - (mListPadding != null ? mListPadding.right
                             : getPaddingRight());
             View last = getChildAt(getChildCount() - 1);
-            if (last == null || last.getRight() < listRight) {
+            if (last == null || getChildRightInViewport(last) < listRight) {
                 return false;
             }
         }
@@ -2901,17 +3224,17 @@ public class HorizontalListView extends AbsHorizontalListView {
         final boolean drawDividers = dividerWidth > 0 && mDivider != null;
 
         if (drawDividers) {
-            // Only modify the top and bottom in the loop, we set the left and
-            // right here
+            // Only modify the left and right in the loop, we set the top and
+            // bottom here
             final Rect bounds = mTempRect;
-            bounds.left = getPaddingLeft();
-            bounds.right = getRight() - getLeft() - getPaddingRight();
+            bounds.top = getPaddingTop();
+            bounds.bottom = getBottom() - getTop() - getPaddingBottom();
 
             final int count = getChildCount();
             final int itemCount = mItemCount;
             final int first = mFirstPosition;
             final boolean areAllItemsSelectable = mAreAllItemsSelectable;
-            final ListAdapter adapter = mAdapter;
+            final ItemInfoCache itemInfo = mItemInfo;
             // If the list is opaque *and* the background is not, we want to
             // fill a rect where the dividers would be for non-selectable items
             // If the list is opaque and the background is also opaque, we don't
@@ -2928,7 +3251,7 @@ public class HorizontalListView extends AbsHorizontalListView {
 
             int effectivePaddingLeft = 0;
             int effectivePaddingRight = 0;
-            if ((mHideApiProxy.mGroupFlags(this) & CLIP_TO_PADDING_MASK) == CLIP_TO_PADDING_MASK) {
+            if (getClipToPadding()) {
                 effectivePaddingLeft = mListPadding.left;
                 effectivePaddingRight = mListPadding.right;
             }
@@ -2946,6 +3269,63 @@ public class HorizontalListView extends AbsHorizontalListView {
                     drawDivider(canvas, bounds, -1);
                 }
             }
+
+            // The divider keeps the same bounds for every child and is moved
+            // into place by translating the canvas
+            final Drawable divider = mDivider;
+            final Rect dividerBounds = divider.getBounds();
+            if (dividerBounds.left != 0 || dividerBounds.top != bounds.top
+                    || dividerBounds.right != dividerWidth
+                    || dividerBounds.bottom != bounds.bottom) {
+                divider.setBounds(0, bounds.top, dividerWidth, bounds.bottom);
+            }
+
+            // Children are drawn translated by the viewport offset, and so
+            // are their dividers. Skip the dividers left of the clip.
+            final Rect clip = mDividerClip;
+            canvas.getClipBounds(clip);
+            final int viewportOffset = mViewportOffset;
+            final int clipRight = Math.min(clip.right, listRight);
+
+            // Fills for missing dividers are only drawn when the children
+            // are opaque, so consecutive fills can be merged into a single
+            // rect that the children in between paint over
+            boolean fillPending = false;
+            int fillLeft = 0;
+            int fillRight = 0;
+            // There is no divider after the last child
+            final int lastDivider = count - 1;
+            for (int i = findChildIndexEndingAfter(clip.left - dividerWidth,
+                    0); i < lastDivider; i++) {
+                right = getChildAt(i).getRight() + viewportOffset;
+                if (right >= clipRight) {
+                    break;
+                }
+                if (areAllItemsSelectable
+                        || (itemInfo.isEnabled(first + i) && itemInfo
+                                .isEnabled(first + i + 1))) {
+                    if (fillPending) {
+                        bounds.left = fillLeft;
+                        bounds.right = fillRight;
+                        canvas.drawRect(bounds, paint);
+                        fillPending = false;
+                    }
+                    canvas.translate(right, 0);
+                    divider.draw(canvas);
+                    canvas.translate(-right, 0);
+                } else if (fillForMissingDividers) {
+                    if (!fillPending) {
+                        fillPending = true;
+                        fillLeft = right;
+                    }
+                    fillRight = right + dividerWidth;
+                }
+            }
+            if (fillPending) {
+                bounds.left = fillLeft;
+                bounds.right = fillRight;
+                canvas.drawRect(bounds, paint);
+            }
         }
 
         // Draw the indicators (these should be drawn above the dividers) and
@@ -2955,6 +3335,11 @@ public class HorizontalListView extends AbsHorizontalListView {
 
     @Override
     protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        if (isChildClipped(child)) {
+            // Outside of the area being redrawn, such as in the padding, the
+            // offscreen margin or a clean part of the list
+            return false;
+        }
         boolean more = super.drawChild(canvas, child, drawingTime);
         if (mCachingActive && mHideApiProxy.mCachingFailed(child)) {
             mCachingActive = false;
@@ -3019,6 +3404,11 @@ public class HorizontalListView extends AbsHorizontalListView {
         return mDividerWidth;
     }
 
+    @Override
+    int getItemSpacing() {
+        return mDividerWidth;
+    }
+
     /**
      * Sets the width of the divider that will be drawn between each item in the
      * list. Calling this will override the intrinsic width as set by
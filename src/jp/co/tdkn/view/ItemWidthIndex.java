@@ -0,0 +1,135 @@
+package jp.co.tdkn.view;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the measured width of every item that has been laid out since the
+ * last data set change. Widths are kept in Fenwick trees so that the total
+ * width of any range of positions, and how many of them are known, can be
+ * queried in logarithmic time. Unknown widths are estimated from the average
+ * of the known ones.
+ */
+final class ItemWidthIndex {
+    private long[] mWidthTree = new long[1];
+    private int[] mKnownTree = new int[1];
+    private int[] mWidths = new int[0];
+
+    private int mCount;
+    private int mGeneration = -1;
+
+    private long mKnownWidth;
+    private int mKnownCount;
+
+    /**
+     * @return true if the index was built for this data set generation and
+     *         item count.
+     */
+    boolean isCurrent(int generation, int count) {
+        return mGeneration == generation && mCount == count;
+    }
+
+    /**
+     * Forgets every width and sizes the index for <code>count</code> items.
+     */
+    void reset(int generation, int count) {
+        mGeneration = generation;
+        mCount = count;
+        if (mWidths.length < count) {
+            mWidths = new int[count];
+            mWidthTree = new long[count + 1];
+            mKnownTree = new int[count + 1];
+        } else {
+            Arrays.fill(mWidthTree, 0);
+            Arrays.fill(mKnownTree, 0);
+        }
+        Arrays.fill(mWidths, -1);
+        mKnownWidth = 0;
+        mKnownCount = 0;
+    }
+
+    /**
+     * Records the measured width of the item at <code>position</code>.
+     */
+    void set(int position, int width) {
+        if (position < 0 || position >= mCount || width < 0) {
+            return;
+        }
+        final int old = mWidths[position];
+        if (old == width) {
+            return;
+        }
+        mWidths[position] = width;
+        final int known = old < 0 ? 1 : 0;
+        final long delta = old < 0 ? width : width - old;
+        mKnownWidth += delta;
+        mKnownCount += known;
+        for (int i = position + 1; i <= mCount; i += i & -i) {
+            mWidthTree[i] += delta;
+            mKnownTree[i] += known;
+        }
+    }
+
+    /**
+     * @return The width recorded for <code>position</code>, or -1 if unknown.
+     */
+    int get(int position) {
+        return position >= 0 && position < mCount ? mWidths[position] : -1;
+    }
+
+    /**
+     * @return The average of the known widths, or -1 if none is known.
+     */
+    int getAverageWidth() {
+        return mKnownCount == 0 ? -1 : (int) (mKnownWidth / mKnownCount);
+    }
+
+    /**
+     * @return The number of known widths in [from, to).
+     */
+    int getKnownCount(int from, int to) {
+        return knownPrefix(to) - knownPrefix(from);
+    }
+
+    /**
+     * @return true if the width of every item in [from, to) is known.
+     */
+    boolean isExact(int from, int to) {
+        return getKnownCount(from, to) == to - from;
+    }
+
+    /**
+     * Returns the total width of the items in [from, to), using the average
+     * known width for the items whose width is unknown.
+     *
+     * @return The width, or -1 if no width is known at all.
+     */
+    long getWidth(int from, int to) {
+        from = Math.max(0, from);
+        to = Math.min(mCount, to);
+        if (from >= to) {
+            return 0;
+        }
+        final int unknown = to - from - getKnownCount(from, to);
+        if (unknown > 0 && mKnownCount == 0) {
+            return -1;
+        }
+        return widthPrefix(to) - widthPrefix(from) + (long) unknown
+                * getAverageWidth();
+    }
+
+    private long widthPrefix(int end) {
+        long sum = 0;
+        for (int i = Math.min(end, mCount); i > 0; i -= i & -i) {
+            sum += mWidthTree[i];
+        }
+        return sum;
+    }
+
+    private int knownPrefix(int end) {
+        int sum = 0;
+        for (int i = Math.min(end, mCount); i > 0; i -= i & -i) {
+            sum += mKnownTree[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,129 @@
+package jp.co.tdkn.view;
+
+import java.util.HashMap;
+
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+/**
+ * The source of animation frames for the flings and smooth scrolls of an
+ * {@link AbsHorizontalListView}. Scroll positions are computed from the frame
+ * times delivered by the clock. The default clock follows the display vsync;
+ * tests can install their own with
+ * {@link AbsHorizontalListView#setScrollClock(ScrollClock)} to step scroll
+ * animations deterministically.
+ */
+public abstract class ScrollClock {
+    /**
+     * Receives the next animation frame.
+     */
+    public interface FrameCallback {
+        /**
+         * Called when a new frame starts rendering.
+         *
+         * @param frameTimeNanos
+         *            The time the frame started, in the time base of
+         *            {@link ScrollClock#nanoTime()}
+         */
+        public void doFrame(long frameTimeNanos);
+    }
+
+    /**
+     * @return The current time in nanoseconds, in the time base of the frame
+     *         times.
+     */
+    public abstract long nanoTime();
+
+    /**
+     * Runs <code>callback</code> once on the next frame. Posting a callback
+     * that is already waiting for the next frame has no further effect.
+     */
+    public abstract void postFrameCallback(FrameCallback callback);
+
+    /**
+     * Removes a pending callback.
+     */
+    public abstract void removeFrameCallback(FrameCallback callback);
+
+    /**
+     * @return A clock driven by {@link Choreographer} on Jelly Bean and later,
+     *         or by the message queue of the current thread before it.
+     */
+    public static ScrollClock getDefault() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return new ChoreographerClock();
+        }
+        return new HandlerClock();
+    }
+
+    private static final class ChoreographerClock extends ScrollClock {
+        private final Choreographer mChoreographer = Choreographer
+                .getInstance();
+        private final HashMap<FrameCallback, Choreographer.FrameCallback> mCallbacks = new HashMap<FrameCallback, Choreographer.FrameCallback>();
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void postFrameCallback(final FrameCallback callback) {
+            Choreographer.FrameCallback frameCallback = mCallbacks.get(callback);
+            if (frameCallback == null) {
+                frameCallback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        callback.doFrame(frameTimeNanos);
+                    }
+                };
+                mCallbacks.put(callback, frameCallback);
+            }
+            mChoreographer.removeFrameCallback(frameCallback);
+            mChoreographer.postFrameCallback(frameCallback);
+        }
+
+        @Override
+        public void removeFrameCallback(FrameCallback callback) {
+            final Choreographer.FrameCallback frameCallback = mCallbacks
+                    .get(callback);
+            if (frameCallback != null) {
+                mChoreographer.removeFrameCallback(frameCallback);
+            }
+        }
+    }
+
+    private static final class HandlerClock extends ScrollClock {
+        private final Handler mHandler = new Handler();
+        private final HashMap<FrameCallback, Runnable> mCallbacks = new HashMap<FrameCallback, Runnable>();
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void postFrameCallback(final FrameCallback callback) {
+            Runnable runnable = mCallbacks.get(callback);
+            if (runnable == null) {
+                runnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.doFrame(System.nanoTime());
+                    }
+                };
+                mCallbacks.put(callback, runnable);
+            }
+            mHandler.removeCallbacks(runnable);
+            mHandler.post(runnable);
+        }
+
+        @Override
+        public void removeFrameCallback(FrameCallback callback) {
+            final Runnable runnable = mCallbacks.get(callback);
+            if (runnable != null) {
+                mHandler.removeCallbacks(runnable);
+            }
+        }
+    }
+}
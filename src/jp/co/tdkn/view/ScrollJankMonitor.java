@@ -0,0 +1,106 @@
+package jp.co.tdkn.view;
+
+/**
+ * Watches the frames of one scroll. Every frame delivered by the scroll clock
+ * closes the interval since the previous one; intervals that missed at least
+ * one vsync are counted as slow, together with the work the list did during
+ * them.
+ */
+final class ScrollJankMonitor implements ScrollClock.FrameCallback {
+    final AbsHorizontalListView.ScrollJankReport mReport = new AbsHorizontalListView.ScrollJankReport();
+
+    /**
+     * Work done by the list since the last frame, in nanoseconds. Updated by
+     * the list while the monitor runs.
+     */
+    long mLayoutNanos;
+    long mObtainViewNanos;
+    long mDrawNanos;
+
+    private ScrollClock mClock;
+    private boolean mRunning;
+    private long mFirstFrameTime;
+    private long mLastFrameTime;
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Starts watching a scroll.
+     *
+     * @param frameBudgetNanos
+     *            The time between two vsyncs
+     * @param state
+     *            The scroll state the scroll starts in
+     */
+    void start(ScrollClock clock, long frameBudgetNanos, int state) {
+        mReport.reset();
+        mReport.startState = state;
+        mReport.frameBudgetNanos = frameBudgetNanos;
+        mClock = clock;
+        mRunning = true;
+        mFirstFrameTime = -1;
+        mLastFrameTime = -1;
+        clearWork();
+        clock.postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        final AbsHorizontalListView.ScrollJankReport report = mReport;
+        if (mLastFrameTime < 0) {
+            mFirstFrameTime = frameTimeNanos;
+        } else {
+            final long interval = frameTimeNanos - mLastFrameTime;
+            final long budget = report.frameBudgetNanos;
+            report.frameCount++;
+            if (interval > report.longestFrameNanos) {
+                report.longestFrameNanos = interval;
+            }
+            if (interval >= budget + budget / 2) {
+                report.slowFrameCount++;
+                report.droppedFrameCount += (int) ((interval + budget / 2)
+                        / budget) - 1;
+                if (mLayoutNanos > 0) {
+                    report.slowFramesWithLayout++;
+                    report.slowFrameLayoutNanos += mLayoutNanos;
+                }
+                if (mObtainViewNanos > 0) {
+                    report.slowFramesWithObtainView++;
+                    report.slowFrameObtainViewNanos += mObtainViewNanos;
+                }
+                if (mDrawNanos > 0) {
+                    report.slowFramesWithDraw++;
+                    report.slowFrameDrawNanos += mDrawNanos;
+                }
+            }
+        }
+        mLastFrameTime = frameTimeNanos;
+        clearWork();
+        mClock.postFrameCallback(this);
+    }
+
+    /**
+     * Stops watching.
+     *
+     * @return The report of the scroll, which is reused by the next one
+     */
+    AbsHorizontalListView.ScrollJankReport stop() {
+        mRunning = false;
+        mClock.removeFrameCallback(this);
+        mReport.durationNanos = mLastFrameTime > mFirstFrameTime ? mLastFrameTime
+                - mFirstFrameTime
+                : 0;
+        return mReport;
+    }
+
+    private void clearWork() {
+        mLayoutNanos = 0;
+        mObtainViewNanos = 0;
+        mDrawNanos = 0;
+    }
+}
@@ -0,0 +1,160 @@
+package jp.co.tdkn.view;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.view.View;
+import android.widget.ListAdapter;
+
+/**
+ * Remembers where the user left the {@link HorizontalListView} of each row of
+ * a vertical list, so that a carousel that is recycled and bound to another
+ * row comes back to where it was. The state of a row is its first visible
+ * position, the offset of that item and, optionally, the ids of its checked
+ * items. Only the most recently used rows are kept.
+ * 
+ * <pre>
+ * cache.save(oldRowId, carousel);
+ * cache.restore(rowId, carousel, adapterForRow);
+ * </pre>
+ * 
+ * If the adapters of all rows show their view types with the same layouts,
+ * restoring with <code>keepViews</code> keeps the recycled views of the
+ * carousel, so binding a row only binds the items that become visible.
+ */
+public class ScrollStateCache {
+    private static final class RowState {
+        int position;
+        int offset;
+        long[] checkedIds;
+        int[] checkedPositions;
+    }
+
+    private final int mMaxRows;
+    private final boolean mSaveCheckedState;
+    private final LinkedHashMap<Long, RowState> mStates;
+
+    /**
+     * @param maxRows
+     *            The number of rows to remember
+     * @param saveCheckedState
+     *            true to also remember the checked items of lists with stable
+     *            ids
+     */
+    public ScrollStateCache(int maxRows, boolean saveCheckedState) {
+        if (maxRows < 1) {
+            throw new IllegalArgumentException("Invalid row count: " + maxRows);
+        }
+        mMaxRows = maxRows;
+        mSaveCheckedState = saveCheckedState;
+        mStates = new LinkedHashMap<Long, RowState>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, RowState> eldest) {
+                return size() > mMaxRows;
+            }
+        };
+    }
+
+    /**
+     * Remembers the state of <code>list</code>, which currently shows the row
+     * <code>rowId</code>.
+     */
+    public void save(long rowId, HorizontalListView list) {
+        final ListAdapter adapter = list.getAdapter();
+        if (adapter == null) {
+            return;
+        }
+        RowState state = mStates.get(rowId);
+        if (state == null) {
+            state = new RowState();
+            mStates.put(rowId, state);
+        }
+        if (list.getChildCount() > 0) {
+            final View first = list.getChildAt(0);
+            state.position = list.mFirstPosition;
+            state.offset = list.getChildLeftInViewport(first)
+                    - list.mListPadding.left;
+        } else {
+            state.position = 0;
+            state.offset = 0;
+        }
+        state.checkedIds = null;
+        state.checkedPositions = null;
+        if (mSaveCheckedState && list.mCheckedIdStates != null) {
+            final int count = list.mCheckedIdStates.size();
+            final long[] ids = new long[count];
+            final int[] positions = new int[count];
+            int i = 0;
+            for (Map.Entry<Long, Integer> entry : list.mCheckedIdStates
+                    .entrySet()) {
+                ids[i] = entry.getKey();
+                positions[i] = entry.getValue();
+                i++;
+            }
+            state.checkedIds = ids;
+            state.checkedPositions = positions;
+        }
+    }
+
+    /**
+     * Binds <code>list</code> to the row <code>rowId</code> and brings it back
+     * to the state saved for the row, or to its start if none was saved. The
+     * views of the previous row are discarded.
+     * 
+     * @param adapter
+     *            The adapter of the row
+     * @return true if a state was saved for the row
+     */
+    public boolean restore(long rowId, HorizontalListView list,
+            ListAdapter adapter) {
+        return restore(rowId, list, adapter, false);
+    }
+
+    /**
+     * Binds <code>list</code> to the row <code>rowId</code> and brings it back
+     * to the state saved for the row, or to its start if none was saved.
+     * 
+     * @param adapter
+     *            The adapter of the row
+     * @param keepViews
+     *            true if the views of each view type of the previous row can
+     *            be converted by the view type with the same number of
+     *            <code>adapter</code>, as for
+     *            {@link HorizontalListView#swapAdapter(ListAdapter, boolean)}
+     * @return true if a state was saved for the row
+     */
+    public boolean restore(long rowId, HorizontalListView list,
+            ListAdapter adapter, boolean keepViews) {
+        list.setAdapterInternal(adapter, keepViews);
+        final RowState state = mStates.get(rowId);
+        if (state == null || adapter == null) {
+            return false;
+        }
+        if (state.checkedIds != null) {
+            list.restoreCheckedIds(state.checkedIds, state.checkedPositions);
+        }
+        if (state.position > 0 || state.offset != 0) {
+            final int count = adapter.getCount();
+            if (state.position < count) {
+                list.setSelectionFromLeft(state.position, state.offset);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the state of a row, for when it was removed.
+     */
+    public void remove(long rowId) {
+        mStates.remove(rowId);
+    }
+
+    /**
+     * Forgets the state of all rows.
+     */
+    public void clear() {
+        mStates.clear();
+    }
+}
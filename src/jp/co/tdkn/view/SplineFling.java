@@ -0,0 +1,184 @@
+package jp.co.tdkn.view;
+
+import android.content.Context;
+import android.hardware.SensorManager;
+import android.view.ViewConfiguration;
+
+/**
+ * The deceleration curve used by {@link android.widget.OverScroller} for
+ * flings, so that the distance a fling will travel can be known before it
+ * starts, the velocity needed to travel a given distance can be found, and
+ * the position of a fling can be computed for any point in time.
+ */
+final class SplineFling {
+    private static final float DECELERATION_RATE = (float) (Math.log(0.78) / Math
+            .log(0.9));
+    private static final float INFLEXION = 0.35f; // Tension lines cross at
+                                                  // (INFLEXION, 1)
+    private static final float START_TENSION = 0.5f;
+    private static final float END_TENSION = 1.0f;
+    private static final float P1 = START_TENSION * INFLEXION;
+    private static final float P2 = 1.0f - END_TENSION * (1.0f - INFLEXION);
+
+    private static final int NB_SAMPLES = 100;
+    private static final float[] SPLINE_POSITION = new float[NB_SAMPLES + 1];
+    private static final float[] SPLINE_TIME = new float[NB_SAMPLES + 1];
+
+    static {
+        float x_min = 0.0f;
+        float y_min = 0.0f;
+        for (int i = 0; i < NB_SAMPLES; i++) {
+            final float alpha = (float) i / NB_SAMPLES;
+
+            float x_max = 1.0f;
+            float x, tx, coef;
+            while (true) {
+                x = x_min + (x_max - x_min) / 2.0f;
+                coef = 3.0f * x * (1.0f - x);
+                tx = coef * ((1.0f - x) * P1 + x * P2) + x * x * x;
+                if (Math.abs(tx - alpha) < 1E-5) {
+                    break;
+                }
+                if (tx > alpha) {
+                    x_max = x;
+                } else {
+                    x_min = x;
+                }
+            }
+            SPLINE_POSITION[i] = coef * ((1.0f - x) * START_TENSION + x) + x
+                    * x * x;
+
+            float y_max = 1.0f;
+            float y, dy;
+            while (true) {
+                y = y_min + (y_max - y_min) / 2.0f;
+                coef = 3.0f * y * (1.0f - y);
+                dy = coef * ((1.0f - y) * START_TENSION + y) + y * y * y;
+                if (Math.abs(dy - alpha) < 1E-5) {
+                    break;
+                }
+                if (dy > alpha) {
+                    y_max = y;
+                } else {
+                    y_min = y;
+                }
+            }
+            SPLINE_TIME[i] = coef * ((1.0f - y) * P1 + y * P2) + y * y * y;
+        }
+        SPLINE_POSITION[NB_SAMPLES] = SPLINE_TIME[NB_SAMPLES] = 1.0f;
+    }
+
+    /**
+     * The physical deceleration coefficient of the device.
+     */
+    private final float mPhysicalCoeff;
+
+    /**
+     * The friction multiplied by the physical deceleration coefficient.
+     */
+    private float mDeceleration;
+
+    SplineFling(Context context) {
+        final float ppi = context.getResources().getDisplayMetrics().density * 160.0f;
+        mPhysicalCoeff = SensorManager.GRAVITY_EARTH // g (m/s^2)
+                * 39.37f // inch/meter
+                * ppi * 0.84f; // look and feel tuning
+        setFriction(ViewConfiguration.getScrollFriction());
+    }
+
+    /**
+     * Sets the friction applied to flings, as in
+     * {@link android.widget.OverScroller#setFriction(float)}.
+     */
+    void setFriction(float friction) {
+        mDeceleration = friction * mPhysicalCoeff;
+    }
+
+    /**
+     * @return The distance in pixels a fling started at
+     *         <code>velocity</code> pixels per second will travel.
+     */
+    double getDistance(int velocity) {
+        if (velocity == 0) {
+            return 0;
+        }
+        final double decelMinusOne = DECELERATION_RATE - 1.0;
+        return mDeceleration
+                * Math.exp(DECELERATION_RATE / decelMinusOne
+                        * getDeceleration(velocity));
+    }
+
+    /**
+     * @return How long in milliseconds a fling started at
+     *         <code>velocity</code> pixels per second lasts.
+     */
+    double getDuration(int velocity) {
+        if (velocity == 0) {
+            return 0;
+        }
+        final double decelMinusOne = DECELERATION_RATE - 1.0;
+        return 1000.0 * Math.exp(getDeceleration(velocity) / decelMinusOne);
+    }
+
+    private double getDeceleration(int velocity) {
+        return Math.log(INFLEXION * Math.abs(velocity) / mDeceleration);
+    }
+
+    /**
+     * @return The velocity in pixels per second a fling must start at to
+     *         travel <code>distance</code> pixels. The sign follows the
+     *         distance.
+     */
+    int getVelocity(double distance) {
+        if (distance == 0) {
+            return 0;
+        }
+        final double decelMinusOne = DECELERATION_RATE - 1.0;
+        final double l = Math.log(Math.abs(distance) / mDeceleration)
+                * decelMinusOne / DECELERATION_RATE;
+        final int velocity = (int) Math.ceil(mDeceleration * Math.exp(l)
+                / INFLEXION);
+        return distance < 0 ? -velocity : velocity;
+    }
+
+    /**
+     * @return The fraction of its distance a fling has travelled after the
+     *         fraction <code>t</code> of its duration.
+     */
+    static float getDistanceCoefficient(float t) {
+        final int index = (int) (NB_SAMPLES * t);
+        if (index >= NB_SAMPLES) {
+            return 1.0f;
+        }
+        final float t_inf = (float) index / NB_SAMPLES;
+        return SPLINE_POSITION[index] + (t - t_inf)
+                * getVelocityCoefficient(t);
+    }
+
+    /**
+     * @return The velocity of a fling after the fraction <code>t</code> of
+     *         its duration, in fractions of its distance per duration.
+     */
+    static float getVelocityCoefficient(float t) {
+        final int index = (int) (NB_SAMPLES * t);
+        if (index >= NB_SAMPLES) {
+            return 0.0f;
+        }
+        return (SPLINE_POSITION[index + 1] - SPLINE_POSITION[index])
+                * NB_SAMPLES;
+    }
+
+    /**
+     * @return The fraction of its duration after which a fling has travelled
+     *         the fraction <code>x</code> of its distance.
+     */
+    static float getTimeCoefficient(float x) {
+        final int index = (int) (NB_SAMPLES * x);
+        if (index >= NB_SAMPLES) {
+            return 1.0f;
+        }
+        final float x_inf = (float) index / NB_SAMPLES;
+        return SPLINE_TIME[index] + (x - x_inf) * NB_SAMPLES
+                * (SPLINE_TIME[index + 1] - SPLINE_TIME[index]);
+    }
+}
@@ -0,0 +1,172 @@
+package jp.co.tdkn.view;
+
+import android.os.SystemClock;
+import android.view.View;
+
+/**
+ * Keeps the visible fraction of every child of a list and reports items
+ * that stay at least {@link #mThreshold} visible for {@link #mDwellMillis},
+ * and again when they drop below it. The state of the children on screen is
+ * kept in arrays indexed from the first visible position, which are shifted
+ * rather than rebuilt as the list scrolls, so that an update allocates
+ * nothing.
+ */
+final class VisibilityTracker implements Runnable {
+    private final AbsHorizontalListView mList;
+    private final AbsHorizontalListView.OnItemVisibilityListener mListener;
+    private final float mThreshold;
+    private final long mDwellMillis;
+
+    /**
+     * The position whose state is at index 0 of the arrays.
+     */
+    private int mFirst;
+    private int mCount;
+
+    /**
+     * When each item last rose to the threshold, in uptime milliseconds, or
+     * -1 while it is below it.
+     */
+    private long[] mSince = new long[16];
+
+    /**
+     * Whether each item has been reported visible.
+     */
+    private boolean[] mReported = new boolean[16];
+
+    private long[] mSinceScratch = new long[16];
+    private boolean[] mReportedScratch = new boolean[16];
+
+    VisibilityTracker(AbsHorizontalListView list,
+            AbsHorizontalListView.OnItemVisibilityListener listener,
+            float threshold, int dwellMillis) {
+        mList = list;
+        mListener = listener;
+        mThreshold = threshold;
+        mDwellMillis = dwellMillis;
+    }
+
+    /**
+     * Delivers the items whose dwell time ran out while the list was still.
+     */
+    @Override
+    public void run() {
+        update();
+    }
+
+    /**
+     * Recomputes the visible fraction of every child after the children have
+     * moved or changed.
+     */
+    void update() {
+        final AbsHorizontalListView list = mList;
+        final int first = list.mFirstPosition;
+        final int childCount = list.getChildCount();
+        ensureCapacity(childCount);
+
+        // Carry over the state of the positions that are still on screen
+        final long[] since = mSinceScratch;
+        final boolean[] reported = mReportedScratch;
+        for (int i = 0; i < childCount; i++) {
+            final int old = first + i - mFirst;
+            if (old >= 0 && old < mCount) {
+                since[i] = mSince[old];
+                reported[i] = mReported[old];
+            } else {
+                since[i] = -1;
+                reported[i] = false;
+            }
+        }
+        final int oldFirst = mFirst;
+        final int oldCount = mCount;
+        final boolean[] oldReported = mReported;
+        mSinceScratch = mSince;
+        mReportedScratch = mReported;
+        mSince = since;
+        mReported = reported;
+        mFirst = first;
+        mCount = childCount;
+
+        // Report the positions that scrolled away
+        for (int i = 0; i < oldCount; i++) {
+            final int position = oldFirst + i;
+            if (oldReported[i]
+                    && (position < first || position >= first + childCount)) {
+                mListener.onItemHidden(list, position);
+            }
+        }
+
+        final int left = list.getPaddingLeft();
+        final int right = list.getWidth() - list.getPaddingRight();
+        final long now = SystemClock.uptimeMillis();
+        long nextDue = Long.MAX_VALUE;
+        for (int i = 0; i < childCount; i++) {
+            final View child = list.getChildAt(i);
+            final int width = child.getWidth();
+            final int childLeft = list.getChildLeftInViewport(child);
+            final int visible = Math.min(childLeft + width, right)
+                    - Math.max(childLeft, left);
+            final float fraction = width > 0 && visible > 0 ? Math.min(1.0f,
+                    (float) visible / width) : 0.0f;
+            if (fraction > 0 && fraction >= mThreshold) {
+                if (since[i] < 0) {
+                    since[i] = now;
+                }
+                if (!reported[i]) {
+                    final long due = since[i] + mDwellMillis;
+                    if (now >= due) {
+                        reported[i] = true;
+                        mListener.onItemVisible(list, child, first + i,
+                                fraction);
+                    } else if (due < nextDue) {
+                        nextDue = due;
+                    }
+                }
+            } else {
+                since[i] = -1;
+                if (reported[i]) {
+                    reported[i] = false;
+                    mListener.onItemHidden(list, first + i);
+                }
+            }
+        }
+
+        list.removeCallbacks(this);
+        if (nextDue != Long.MAX_VALUE) {
+            list.postDelayed(this, nextDue - now);
+        }
+    }
+
+    /**
+     * Reports every item that was visible as hidden and forgets all state,
+     * for when the positions no longer mean the same items or the list left
+     * the screen.
+     */
+    void clear() {
+        mList.removeCallbacks(this);
+        final int count = mCount;
+        final int first = mFirst;
+        mCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (mReported[i]) {
+                mReported[i] = false;
+                mListener.onItemHidden(mList, first + i);
+            }
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (mSince.length >= count) {
+            return;
+        }
+        final int capacity = Math.max(count, mSince.length * 2);
+        final long[] since = new long[capacity];
+        final boolean[] reported = new boolean[capacity];
+        System.arraycopy(mSince, 0, since, 0, mCount);
+        System.arraycopy(mReported, 0, reported, 0, mCount);
+        mSince = since;
+        mReported = reported;
+        mSinceScratch = new long[capacity];
+        mReportedScratch = new boolean[capacity];
+    }
+}